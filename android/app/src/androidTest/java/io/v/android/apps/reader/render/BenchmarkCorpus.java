@@ -0,0 +1,192 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.pdf.PdfDocument;
+import android.util.Log;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The documents used by {@link RenderBenchmark}.
+ *
+ * The corpus always contains three generated documents which stand for the kinds of PDFs we read:
+ * scanned decks (a full-page image on every page), vector-heavy diagrams (thousands of paths on
+ * every page) and long manuals (a thousand pages of text). The generated documents are the same on
+ * every run. In addition, any PDF files under the {@code benchmark} directory of the test assets
+ * are included as they are.
+ */
+final class BenchmarkCorpus {
+
+    private static final String TAG = BenchmarkCorpus.class.getSimpleName();
+
+    private static final String ASSET_DIRECTORY = "benchmark";
+
+    // US letter size in points.
+    private static final int PAGE_WIDTH = 612;
+    private static final int PAGE_HEIGHT = 792;
+
+    private static final int SCANNED_PAGE_COUNT = 20;
+    private static final int VECTOR_PAGE_COUNT = 20;
+    private static final int VECTOR_PATH_COUNT = 4000;
+    private static final int MANUAL_PAGE_COUNT = 1000;
+    private static final int MANUAL_LINE_COUNT = 50;
+
+    private BenchmarkCorpus() {
+    }
+
+    /**
+     * Writes the documents of the corpus under the given directory, unless they are already there.
+     *
+     * @param testContext the context of the test package, which holds the test assets.
+     * @param directory   the directory to write the documents to.
+     * @return            the documents of the corpus.
+     */
+    static List<File> prepare(Context testContext, File directory) throws IOException {
+        directory.mkdirs();
+        List<File> result = new ArrayList<>();
+
+        File scanned = new File(directory, "generated-scanned.pdf");
+        if (!scanned.exists()) {
+            writeScanned(scanned);
+        }
+        result.add(scanned);
+
+        File vector = new File(directory, "generated-vector.pdf");
+        if (!vector.exists()) {
+            writeVector(vector);
+        }
+        result.add(vector);
+
+        File manual = new File(directory, "generated-manual.pdf");
+        if (!manual.exists()) {
+            writeManual(manual);
+        }
+        result.add(manual);
+
+        String[] assets = testContext.getAssets().list(ASSET_DIRECTORY);
+        if (assets != null) {
+            for (String asset : assets) {
+                if (!asset.endsWith(".pdf")) {
+                    continue;
+                }
+
+                File file = new File(directory, asset);
+                if (!file.exists()) {
+                    try (InputStream in = testContext.getAssets().open(
+                            ASSET_DIRECTORY + "/" + asset);
+                         OutputStream out = new FileOutputStream(file)) {
+                        ByteStreams.copy(in, out);
+                    }
+                }
+                result.add(file);
+            }
+        }
+
+        Log.i(TAG, "Corpus: " + result);
+        return result;
+    }
+
+    private static void writeScanned(File file) throws IOException {
+        Random random = new Random(1);
+
+        // A noisy grayscale image at about 150 dpi, which does not compress well.
+        int width = PAGE_WIDTH * 150 / 72;
+        int height = PAGE_HEIGHT * 150 / 72;
+        int[] pixels = new int[width * height];
+
+        write(file, SCANNED_PAGE_COUNT, canvas -> {
+            for (int i = 0; i < pixels.length; ++i) {
+                int gray = 192 + random.nextInt(64);
+                pixels[i] = Color.rgb(gray, gray, gray);
+            }
+
+            Bitmap scan = Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+            canvas.save();
+            canvas.scale((float) PAGE_WIDTH / width, (float) PAGE_HEIGHT / height);
+            canvas.drawBitmap(scan, 0, 0, null);
+            canvas.restore();
+            scan.recycle();
+        });
+    }
+
+    private static void writeVector(File file) throws IOException {
+        Random random = new Random(2);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+
+        write(file, VECTOR_PAGE_COUNT, canvas -> {
+            for (int i = 0; i < VECTOR_PATH_COUNT; ++i) {
+                Path path = new Path();
+                path.moveTo(random.nextInt(PAGE_WIDTH), random.nextInt(PAGE_HEIGHT));
+                path.cubicTo(
+                        random.nextInt(PAGE_WIDTH), random.nextInt(PAGE_HEIGHT),
+                        random.nextInt(PAGE_WIDTH), random.nextInt(PAGE_HEIGHT),
+                        random.nextInt(PAGE_WIDTH), random.nextInt(PAGE_HEIGHT));
+
+                paint.setColor(random.nextInt() | 0xFF000000);
+                paint.setStrokeWidth(0.5f + random.nextFloat() * 2f);
+                canvas.drawPath(path, paint);
+            }
+        });
+    }
+
+    private static void writeManual(File file) throws IOException {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(Color.BLACK);
+        paint.setTextSize(10f);
+
+        int[] pageNumber = new int[1];
+        write(file, MANUAL_PAGE_COUNT, canvas -> {
+            ++pageNumber[0];
+            for (int line = 0; line < MANUAL_LINE_COUNT; ++line) {
+                canvas.drawText(String.format(
+                        "%d.%d The quick brown fox jumps over the lazy dog, again and again.",
+                        pageNumber[0], line + 1), 72, 72 + line * 13, paint);
+            }
+        });
+    }
+
+    private interface PagePainter {
+        void paint(Canvas canvas);
+    }
+
+    private static void write(File file, int pageCount, PagePainter painter) throws IOException {
+        PdfDocument document = new PdfDocument();
+        try {
+            for (int i = 0; i < pageCount; ++i) {
+                PdfDocument.Page page = document.startPage(
+                        new PdfDocument.PageInfo.Builder(PAGE_WIDTH, PAGE_HEIGHT, i + 1).create());
+                painter.paint(page.getCanvas());
+                document.finishPage(page);
+            }
+
+            try (OutputStream out = new FileOutputStream(file)) {
+                document.writeTo(out);
+            } catch (IOException e) {
+                file.delete();
+                throw e;
+            }
+        } finally {
+            document.close();
+        }
+    }
+
+}
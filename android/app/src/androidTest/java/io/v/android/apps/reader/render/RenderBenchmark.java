@@ -0,0 +1,365 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.test.InstrumentationTestCase;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the render pipeline over the documents of the {@link BenchmarkCorpus}.
+ *
+ * For every document and every {@link Mode}, this reports the latency percentiles per page, the
+ * peak memory held by the page cache and the bitmap pool, in total and per measured page, and the
+ * hit rates of both. The results
+ * are written to the log and to {@code render-benchmark.txt} in the external files directory of
+ * the app. Run with:
+ *
+ * <pre>
+ * ./gradlew connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=io.v.android.apps.reader.render.RenderBenchmark
+ * </pre>
+ */
+public class RenderBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = RenderBenchmark.class.getSimpleName();
+
+    private static final String REPORT_FILE_NAME = "render-benchmark.txt";
+
+    // Number of pages measured in each document, spread evenly over the document.
+    private static final int SAMPLED_PAGE_COUNT = 30;
+
+    // Number of pages whose tiles are measured in each document.
+    private static final int TILED_PAGE_COUNT = 5;
+    private static final int TILE_ZOOM = 2;
+
+    private static final long TIMEOUT_SECONDS = 120L;
+    private static final long DISK_WRITE_TIMEOUT_MILLIS = 30000L;
+
+    private enum Mode {
+        /** Renders each page once with empty caches. */
+        FULL,
+        /** Time until the preview of each page is delivered, with empty caches. */
+        PREVIEW,
+        /** Requests the rendered pages again, served by the memory cache. */
+        MEMORY_CACHED,
+        /** Requests the rendered pages again after clearing the memory cache. */
+        DISK_CACHED,
+        /** Renders all the tiles of each page at a higher zoom level. */
+        TILES,
+        /** Renders all the pages as one batch with the smallest pool. Reports the average. */
+        BATCH_MIN,
+        /** Renders all the pages as one batch with the default renderer pool. */
+        BATCH_POOL,
+    }
+
+    private Context mContext;
+    private File mWorkDirectory;
+    private int mWidth;
+    private int mHeight;
+    private Writer mReport;
+    private int mFixtureCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mContext = getInstrumentation().getTargetContext();
+        mWorkDirectory = new File(mContext.getCacheDir(), "benchmark");
+        FileUtils.deleteDirectory(new File(mWorkDirectory, "pages"));
+
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        mWidth = metrics.widthPixels;
+        mHeight = metrics.heightPixels;
+
+        mReport = new FileWriter(new File(mContext.getExternalFilesDir(null), REPORT_FILE_NAME),
+                true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mReport.close();
+        super.tearDown();
+    }
+
+    public void testPlatformBackend() throws Exception {
+        runBenchmark(PageRenderers.BACKEND_PLATFORM);
+    }
+
+    public void testPdfBoxBackend() throws Exception {
+        runBenchmark(PageRenderers.BACKEND_PDFBOX);
+    }
+
+    private void runBenchmark(String backend) throws Exception {
+        PageRenderer.Factory factory = PageRenderers.getFactory(mContext, backend);
+        List<File> corpus = BenchmarkCorpus.prepare(
+                getInstrumentation().getContext(), new File(mWorkDirectory, "corpus"));
+
+        for (File file : corpus) {
+            benchmarkDocument(backend, factory, file);
+        }
+    }
+
+    private void benchmarkDocument(String backend, PageRenderer.Factory factory, File file)
+            throws Exception {
+        String label = backend + " " + file.getName();
+        int poolSize = RendererPool.getDefaultSize(mContext);
+
+        List<PageKey> keys;
+        try (Fixture fixture = new Fixture(factory, file, poolSize)) {
+            keys = samplePages(file.getName(), fixture.mRenderers.getPageCount());
+            fixture.mWorker.setProgressive(false);
+
+            report(label, Mode.FULL, fixture, measure(fixture, keys, false), keys.size());
+            report(label, Mode.MEMORY_CACHED, fixture, measure(fixture, keys, false),
+                    keys.size());
+
+            fixture.awaitDiskWrites(keys);
+            fixture.mCache.clear();
+            report(label, Mode.DISK_CACHED, fixture, measure(fixture, keys, false), keys.size());
+        }
+
+        try (Fixture fixture = new Fixture(factory, file, poolSize)) {
+            report(label, Mode.PREVIEW, fixture, measure(fixture, keys, true), keys.size());
+        }
+
+        try (Fixture fixture = new Fixture(factory, file, poolSize)) {
+            List<Double> millis = measureTiles(fixture, keys);
+            report(label, Mode.TILES, fixture, millis, millis.size());
+        }
+
+        // The scheduler keeps one renderer for the visible page, so a pool has at least two.
+        try (Fixture fixture = new Fixture(factory, file, RendererPool.MIN_SIZE)) {
+            report(label + " (" + RendererPool.MIN_SIZE + " renderers)", Mode.BATCH_MIN, fixture,
+                    measureBatch(fixture, keys), keys.size());
+        }
+
+        try (Fixture fixture = new Fixture(factory, file, poolSize)) {
+            report(label + " (" + poolSize + " renderers)", Mode.BATCH_POOL, fixture,
+                    measureBatch(fixture, keys), keys.size());
+        }
+    }
+
+    private List<PageKey> samplePages(String fileId, int pageCount) {
+        int count = Math.min(SAMPLED_PAGE_COUNT, pageCount);
+        List<PageKey> result = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            int page = 1 + (int) ((long) i * pageCount / count);
+            result.add(new PageKey(fileId, page, mWidth, mHeight, 1));
+        }
+
+        return result;
+    }
+
+    /**
+     * Requests the given pages one at a time, and measures the time until the full page or its
+     * preview is delivered.
+     */
+    private List<Double> measure(Fixture fixture, List<PageKey> keys, boolean preview)
+            throws InterruptedException {
+        List<Double> result = new ArrayList<>();
+        Object target = new Object();
+
+        for (PageKey key : keys) {
+            CountDownLatch done = new CountDownLatch(1);
+            long[] elapsed = new long[1];
+            long start = System.nanoTime();
+
+            getInstrumentation().runOnMainSync(() -> fixture.mWorker.render(target, key,
+                    (renderedKey, bitmap) -> {
+                        if (done.getCount() > 0 && (preview || renderedKey.equals(key))) {
+                            elapsed[0] = System.nanoTime() - start;
+                            done.countDown();
+                        }
+                        fixture.release(bitmap);
+                    }));
+
+            assertTrue("Timed out rendering " + key, done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            result.add(elapsed[0] / 1e6);
+        }
+
+        return result;
+    }
+
+    /**
+     * Requests all the tiles of the given pages, one page at a time, and measures the time until
+     * all the tiles of a page are delivered.
+     */
+    private List<Double> measureTiles(Fixture fixture, List<PageKey> keys)
+            throws InterruptedException {
+        List<Double> result = new ArrayList<>();
+        Object target = new Object();
+
+        for (PageKey key : keys.subList(0, Math.min(TILED_PAGE_COUNT, keys.size()))) {
+            // The tiles are laid out over the page fitted into the screen.
+            List<PageKey> tiles = TileRenderer.getVisibleTiles(key, mWidth, mHeight, TILE_ZOOM,
+                    new Rect(0, 0, mWidth * TILE_ZOOM, mHeight * TILE_ZOOM));
+            result.add(measureAll(fixture, target, tiles));
+        }
+
+        return result;
+    }
+
+    /**
+     * Requests all the given pages at once, and returns the average time per page.
+     */
+    private List<Double> measureBatch(Fixture fixture, List<PageKey> keys)
+            throws InterruptedException {
+        double total = measureAll(fixture, new Object(), keys);
+        return Collections.singletonList(total / keys.size());
+    }
+
+    private double measureAll(Fixture fixture, Object target, List<PageKey> keys)
+            throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(keys.size());
+        long start = System.nanoTime();
+
+        getInstrumentation().runOnMainSync(() -> fixture.mWorker.renderTiles(target, keys,
+                (renderedKey, bitmap) -> {
+                    done.countDown();
+                    fixture.release(bitmap);
+                }));
+
+        assertTrue("Timed out rendering " + keys.size() + " keys",
+                done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    /**
+     * Reports the latencies measured in the given mode.
+     *
+     * @param pageCount the number of pages measured, which the peak memory is divided by.
+     */
+    private void report(String label, Mode mode, Fixture fixture, List<Double> millis,
+                        int pageCount) throws IOException {
+        List<Double> sorted = new ArrayList<>(millis);
+        Collections.sort(sorted);
+
+        long peakBytes = fixture.takePeakBytes();
+        String line = String.format(
+                "%s %-13s n=%-3d p50=%7.1fms p90=%7.1fms p99=%7.1fms max=%7.1fms "
+                        + "peak=%6dKB perPage=%5dKB cacheHit=%3d%% poolHit=%3d%%",
+                label, mode, sorted.size(),
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                sorted.get(sorted.size() - 1),
+                peakBytes / 1024,
+                peakBytes / 1024 / Math.max(1, pageCount),
+                fixture.takeCacheHitRate(),
+                fixture.takePoolHitRate());
+
+        Log.i(TAG, line);
+        mReport.write(line + "\n");
+        mReport.flush();
+    }
+
+    private static double percentile(List<Double> sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    /**
+     * A worker with its own caches and renderers, so that the modes do not affect each other.
+     */
+    private class Fixture implements AutoCloseable {
+        private final RendererPool mRenderers;
+        private final BitmapPool mPool;
+        private final PageCache mCache;
+        private final PageDiskCache mDiskCache;
+        private final PageRenderWorker mWorker;
+        private final File mDiskDirectory;
+
+        // Only accessed on the main thread, or after the deliveries are done.
+        private long mPeakBytes;
+        private int mCacheHits;
+        private int mCacheMisses;
+        private int mPoolHits;
+        private int mPoolMisses;
+
+        Fixture(PageRenderer.Factory factory, File file, int rendererCount) throws IOException {
+            int maxMemory = (int) Runtime.getRuntime().maxMemory();
+
+            // Each fixture has its own directory, which is deleted when the fixture is closed.
+            mDiskDirectory = new File(mWorkDirectory, "pages/" + mFixtureCount++);
+
+            mRenderers = new RendererPool(factory, file, rendererCount);
+            mPool = new BitmapPool(maxMemory / 16);
+            mCache = new PageCache(maxMemory / 8, mPool);
+            mDiskCache = new PageDiskCache(mDiskDirectory, Long.MAX_VALUE);
+            mWorker = new PageRenderWorker(mRenderers, mCache, mPool, mDiskCache);
+        }
+
+        /**
+         * Records the memory held by the caches, and gives back the delivered bitmap.
+         */
+        void release(Bitmap bitmap) {
+            mPeakBytes = Math.max(mPeakBytes, (long) mCache.size() + mPool.size());
+            mCache.unpin(bitmap);
+        }
+
+        void awaitDiskWrites(List<PageKey> keys) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + DISK_WRITE_TIMEOUT_MILLIS;
+            for (PageKey key : keys) {
+                while (!mDiskCache.contains(key)) {
+                    assertTrue("Timed out writing " + key,
+                            System.currentTimeMillis() < deadline);
+                    Thread.sleep(10L);
+                }
+            }
+        }
+
+        long takePeakBytes() {
+            long result = mPeakBytes;
+            mPeakBytes = 0L;
+            return result;
+        }
+
+        int takeCacheHitRate() {
+            int hits = mCache.hitCount() - mCacheHits;
+            int misses = mCache.missCount() - mCacheMisses;
+            mCacheHits = mCache.hitCount();
+            mCacheMisses = mCache.missCount();
+            return hitRate(hits, misses);
+        }
+
+        int takePoolHitRate() {
+            int hits = mPool.hitCount() - mPoolHits;
+            int misses = mPool.missCount() - mPoolMisses;
+            mPoolHits = mPool.hitCount();
+            mPoolMisses = mPool.missCount();
+            return hitRate(hits, misses);
+        }
+
+        private int hitRate(int hits, int misses) {
+            return hits + misses == 0 ? 0 : 100 * hits / (hits + misses);
+        }
+
+        @Override
+        public void close() throws IOException, InterruptedException {
+            getInstrumentation().runOnMainSync(mWorker::shutdown);
+            mCache.clear();
+            mPool.clear();
+
+            // Stop the writer thread of the disk cache before deleting its files.
+            mDiskCache.close();
+            FileUtils.deleteDirectory(mDiskDirectory);
+        }
+    }
+
+}
@@ -6,6 +6,8 @@ package io.v.android.apps.reader;
 
 import android.app.Application;
 
+import io.v.android.apps.reader.render.RenderProfile;
+
 import static io.v.android.apps.reader.debug.DebugUtils.startSavingLogs;
 import static io.v.baku.toolkit.debug.DebugUtils.isApkDebug;
 
@@ -14,7 +16,7 @@ import static io.v.baku.toolkit.debug.DebugUtils.isApkDebug;
  * integration is in place.
  *
  * This class is responsible for saving logcat logs to the external storage, and clearing old logs
- * upon app startup.
+ * upon app startup. It also hands the memory trim callbacks over to the {@link MemoryGovernor}.
  */
 public abstract class BaseReaderApplication extends Application {
 
@@ -28,6 +30,10 @@ public abstract class BaseReaderApplication extends Application {
         if (isApkDebug(this)) {
             startSavingLogs(this, Constants.APP_NAME);
         }
+
+        // Size the caches for this device, and let them shrink when the system runs low on memory.
+        RenderProfile.get(this).applyCacheBudget();
+        registerComponentCallbacks(MemoryGovernor.getInstance(this));
     }
 
 }
@@ -0,0 +1,356 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.IOException;
+
+import io.v.android.apps.reader.render.DocumentSession;
+import io.v.android.apps.reader.render.DocumentSessions;
+import io.v.android.apps.reader.render.PageCache;
+import io.v.android.apps.reader.render.PageKey;
+import io.v.android.apps.reader.render.PageRenderWorker;
+import io.v.android.apps.reader.render.RenderProfile;
+
+/**
+ * Displays all the pages of a PDF file in a vertically scrolling list, for reading long documents
+ * on an unlinked device.
+ *
+ * The pages are laid out at the full width of the view, and their heights are given by the aspect
+ * ratios of the pages. The page views are recycled, and only the pages which are attached to the
+ * window are rendered. The bitmaps of the pages are pinned in the {@link PageCache} only while the
+ * pages are attached.
+ */
+public class ContinuousPdfView extends RecyclerView {
+
+    /**
+     * Listener interface for the current page changes made by the user.
+     */
+    public interface OnPageChangedListener {
+        /**
+         * Called when scrolling stops on another page. Page number is one-based.
+         */
+        void onPageChanged(int pageNumber);
+    }
+
+    // US letter, assumed until the actual page sizes are loaded.
+    private static final int DEFAULT_PAGE_WIDTH = 612;
+    private static final int DEFAULT_PAGE_HEIGHT = 792;
+
+    private DocumentSession mSession;
+    private DocumentSessions.AcquireCallback mPendingLoad;
+    private PageRenderWorker mWorker;
+    private String mFileId;
+    private int mPageCount;
+    private int mPageNumber;
+
+    // The resolution of the page bitmaps relative to the page views, given by the RenderProfile.
+    private float mResolutionScale = 1f;
+
+    // The sizes of the pages, in points. Null until they are loaded.
+    private int[] mPageWidths;
+    private int[] mPageHeights;
+
+    private OnPageChangedListener mOnPageChangedListener;
+    private final LinearLayoutManager mLayoutManager;
+    private final PageAdapter mAdapter;
+
+    public ContinuousPdfView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        mLayoutManager = new LinearLayoutManager(context);
+        mAdapter = new PageAdapter();
+        setLayoutManager(mLayoutManager);
+
+        final int spacing = getResources().getDimensionPixelSize(R.dimen.continuous_page_spacing);
+        addItemDecoration(new ItemDecoration() {
+            @Override
+            public void getItemOffsets(Rect outRect, View view, RecyclerView parent, State state) {
+                outRect.set(0, 0, 0, spacing);
+            }
+        });
+
+        addOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == SCROLL_STATE_IDLE) {
+                    updatePageNumber();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the given PDF file, and scrolls to the given page once the document is open. Page
+     * number is one-based.
+     *
+     * @param listener notified once the document is open, or could not be opened.
+     */
+    public void loadPdfFile(final String fileId, final int initialPage,
+                            final PdfViewWrapper.OnLoadListener listener) {
+        cancelPendingLoad();
+
+        // Acquire the new session before releasing the current one, which may be the same.
+        mPendingLoad = new DocumentSessions.AcquireCallback() {
+            @Override
+            public void onAcquired(DocumentSession session) {
+                mPendingLoad = null;
+                showSession(session, fileId, initialPage);
+                listener.onLoaded();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                mPendingLoad = null;
+                listener.onLoadFailed(e);
+            }
+        };
+        DocumentSessions.getInstance(getContext()).acquire(fileId, mPendingLoad);
+    }
+
+    private void cancelPendingLoad() {
+        if (mPendingLoad != null) {
+            DocumentSessions.getInstance(getContext()).cancel(mPendingLoad);
+            mPendingLoad = null;
+        }
+    }
+
+    private void showSession(final DocumentSession session, String fileId, int initialPage) {
+        unloadPdfFile();
+
+        mSession = session;
+        mWorker = session.getWorker();
+        mFileId = fileId;
+        mPageCount = session.getPageCount();
+        mResolutionScale = RenderProfile.get(getContext()).getResolutionScale();
+
+        setAdapter(mAdapter);
+        setPage(initialPage);
+
+        mWorker.loadPageSizes((widths, heights) -> {
+            if (mSession != session) {
+                return;
+            }
+
+            mPageWidths = widths;
+            mPageHeights = heights;
+
+            // The page heights change, so keep the current page at the top.
+            mAdapter.notifyDataSetChanged();
+            mLayoutManager.scrollToPositionWithOffset(mPageNumber - 1, 0);
+        });
+    }
+
+    /**
+     * Stops displaying the current PDF file, releasing all the page bitmaps and the
+     * {@link DocumentSession}.
+     */
+    public void unloadPdfFile() {
+        cancelPendingLoad();
+
+        // Removing the adapter recycles all the page views, which releases their bitmaps.
+        setAdapter(null);
+
+        mWorker = null;
+        if (mSession != null) {
+            DocumentSessions.getInstance(getContext()).release(mSession);
+            mSession = null;
+        }
+        mPageCount = 0;
+        mPageNumber = 0;
+        mPageWidths = null;
+        mPageHeights = null;
+    }
+
+    /**
+     * Scrolls to the top of the given page. Page number is one-based.
+     */
+    public void setPage(int pageNumber) {
+        if (mWorker == null || pageNumber < 1 || pageNumber > mPageCount) {
+            return;
+        }
+
+        mPageNumber = pageNumber;
+        mLayoutManager.scrollToPositionWithOffset(pageNumber - 1, 0);
+    }
+
+    /**
+     * Returns the current page number, which is the page at the center of the view. Page number
+     * is one-based.
+     */
+    public int getPage() {
+        return mPageNumber;
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    public void setOnPageChangedListener(OnPageChangedListener listener) {
+        mOnPageChangedListener = listener;
+    }
+
+    private void updatePageNumber() {
+        int position = NO_POSITION;
+
+        View center = findChildViewUnder(getWidth() / 2f, getHeight() / 2f);
+        if (center != null) {
+            position = getChildAdapterPosition(center);
+        }
+        if (position == NO_POSITION) {
+            // The center falls between two pages.
+            position = mLayoutManager.findFirstVisibleItemPosition();
+        }
+        if (position == NO_POSITION || position + 1 == mPageNumber) {
+            return;
+        }
+
+        mPageNumber = position + 1;
+        if (mOnPageChangedListener != null) {
+            mOnPageChangedListener.onPageChanged(mPageNumber);
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        // The page views are sized after the width of this view.
+        if (w != oldw && getAdapter() != null) {
+            mAdapter.notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        unloadPdfFile();
+    }
+
+    private int getPageViewWidth() {
+        return getWidth() - getPaddingLeft() - getPaddingRight();
+    }
+
+    private int getPageViewHeight(int pageNumber) {
+        int pageWidth = DEFAULT_PAGE_WIDTH;
+        int pageHeight = DEFAULT_PAGE_HEIGHT;
+        if (mPageHeights != null && mPageWidths[pageNumber - 1] > 0) {
+            pageWidth = mPageWidths[pageNumber - 1];
+            pageHeight = mPageHeights[pageNumber - 1];
+        }
+
+        return Math.round((float) getPageViewWidth() * pageHeight / pageWidth);
+    }
+
+    private static class PageViewHolder extends ViewHolder {
+        final ImageView mImageView;
+        int mPageNumber;
+        Bitmap mBitmap;
+
+        PageViewHolder(ImageView v) {
+            super(v);
+            mImageView = v;
+        }
+    }
+
+    private class PageAdapter extends Adapter<PageViewHolder> {
+
+        @Override
+        public PageViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            ImageView v = (ImageView) LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.continuous_page_item, parent, false);
+
+            return new PageViewHolder(v);
+        }
+
+        @Override
+        public void onBindViewHolder(PageViewHolder holder, int position) {
+            releasePage(holder);
+            holder.mPageNumber = position + 1;
+
+            ViewGroup.LayoutParams params = holder.mImageView.getLayoutParams();
+            params.height = Math.max(1, getPageViewHeight(holder.mPageNumber));
+            holder.mImageView.setLayoutParams(params);
+
+            // A view which is bound again while attached does not get attached again.
+            if (holder.mImageView.isAttachedToWindow()) {
+                renderPage(holder);
+            }
+        }
+
+        @Override
+        public void onViewAttachedToWindow(PageViewHolder holder) {
+            if (holder.mBitmap == null) {
+                renderPage(holder);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(PageViewHolder holder) {
+            releasePage(holder);
+        }
+
+        @Override
+        public void onViewRecycled(PageViewHolder holder) {
+            releasePage(holder);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mWorker != null ? mPageCount : 0;
+        }
+
+        private void renderPage(final PageViewHolder holder) {
+            int width = getPageViewWidth();
+            if (mWorker == null || width <= 0) {
+                return;
+            }
+
+            // The bitmap may be rendered below the resolution of the view, and is stretched to fit.
+            final int pageNumber = holder.mPageNumber;
+            PageKey key = new PageKey(mFileId, pageNumber,
+                    Math.round(width * mResolutionScale),
+                    Math.round(getPageViewHeight(pageNumber) * mResolutionScale),
+                    1);
+            mWorker.render(holder, key, (renderedKey, bitmap) -> {
+                if (holder.mPageNumber != pageNumber) {
+                    PageCache.getInstance().unpin(bitmap);
+                    return;
+                }
+
+                // Replace the preview, if any.
+                Bitmap previous = holder.mBitmap;
+                holder.mBitmap = bitmap;
+                holder.mImageView.setImageBitmap(bitmap);
+                if (previous != null) {
+                    PageCache.getInstance().unpin(previous);
+                }
+            });
+        }
+
+        private void releasePage(PageViewHolder holder) {
+            if (mWorker != null) {
+                mWorker.cancel(holder);
+            }
+
+            if (holder.mBitmap != null) {
+                holder.mImageView.setImageBitmap(null);
+                PageCache.getInstance().unpin(holder.mBitmap);
+                holder.mBitmap = null;
+            }
+        }
+    }
+
+}
@@ -140,6 +140,7 @@ public class DeviceSetChooserActivity extends BaseReaderActivity {
 
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
+            startActivity(new Intent(this, SettingsActivity.class));
             return true;
         }
 
@@ -5,24 +5,30 @@
 package io.v.android.apps.reader;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.google.common.base.Joiner;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.v.android.apps.reader.db.DB;
 import io.v.android.apps.reader.db.DB.DBList;
 import io.v.android.apps.reader.model.Listener;
+import io.v.android.apps.reader.render.Thumbnails;
 import io.v.android.apps.reader.vdl.Device;
 import io.v.android.apps.reader.vdl.DeviceSet;
 import io.v.android.apps.reader.vdl.File;
+import io.v.android.apps.reader.vdl.Thumbnail;
 
 /**
  * Adapter that binds the list of device sets to the corresponding card views.
@@ -30,14 +36,22 @@ import io.v.android.apps.reader.vdl.File;
 public class DeviceSetListAdapter extends RecyclerView.Adapter<DeviceSetListAdapter.ViewHolder>
         implements Listener {
 
+    private static final String MEMORY_CLIENT_NAME = "thumbnails";
+
     private OnDeviceSetClickListener mClickListener;
+    private MemoryGovernor mMemoryGovernor;
     private DB mDB;
     private DBList<File> mFiles;
     private DBList<Device> mDevices;
     private DBList<DeviceSet> mDeviceSets;
+    private DBList<Thumbnail> mThumbnails;
+
+    // Decoded thumbnail images, keyed by the file ids.
+    private Map<String, Bitmap> mThumbnailBitmaps;
 
     public class ViewHolder extends RecyclerView.ViewHolder {
         public CardView mCardView;
+        public ImageView mImageViewThumbnail;
         public TextView mTextViewTitle;
         public TextView mTextViewId;
         public TextView mTextViewDevices;
@@ -45,6 +59,8 @@ public class DeviceSetListAdapter extends RecyclerView.Adapter<DeviceSetListAdap
         public ViewHolder(CardView v) {
             super(v);
             mCardView = v;
+            mImageViewThumbnail =
+                    (ImageView) mCardView.findViewById(R.id.device_set_list_item_thumbnail);
             mTextViewTitle = (TextView) mCardView.findViewById(R.id.device_set_list_item_title);
             mTextViewId = (TextView) mCardView.findViewById(R.id.device_set_list_item_id);
             mTextViewDevices = (TextView) mCardView.findViewById(R.id.device_set_list_item_devices);
@@ -66,6 +82,54 @@ public class DeviceSetListAdapter extends RecyclerView.Adapter<DeviceSetListAdap
         mDevices = mDB.getDeviceList();
         mDeviceSets = mDB.getDeviceSetList();
         mDeviceSets.setListener(this);
+
+        // Thumbnails may arrive after the device sets do, so refresh the rows when they change.
+        mThumbnailBitmaps = new HashMap<>();
+        mThumbnails = mDB.getThumbnailList();
+        mThumbnails.setListener(new Listener() {
+            @Override
+            public void notifyItemChanged(int position) {
+                onThumbnailsChanged();
+            }
+
+            @Override
+            public void notifyItemInserted(int position) {
+                onThumbnailsChanged();
+            }
+
+            @Override
+            public void notifyItemRemoved(int position) {
+                onThumbnailsChanged();
+            }
+        });
+
+        // The decoded thumbnails can be decoded again, so let them go under memory pressure.
+        mMemoryGovernor = MemoryGovernor.getInstance(context);
+        mMemoryGovernor.register(MEMORY_CLIENT_NAME, MemoryGovernor.PRIORITY_REBUILDABLE,
+                new MemoryGovernor.Client() {
+                    @Override
+                    public long size() {
+                        long result = 0;
+                        for (Bitmap bitmap : mThumbnailBitmaps.values()) {
+                            if (bitmap != null) {
+                                result += bitmap.getAllocationByteCount();
+                            }
+                        }
+                        return result;
+                    }
+
+                    @Override
+                    public void trim(float fraction) {
+                        if (fraction < 1f) {
+                            mThumbnailBitmaps.clear();
+                        }
+                    }
+                });
+    }
+
+    private void onThumbnailsChanged() {
+        mThumbnailBitmaps.clear();
+        notifyDataSetChanged();
     }
 
     @Override
@@ -83,6 +147,7 @@ public class DeviceSetListAdapter extends RecyclerView.Adapter<DeviceSetListAdap
 
         holder.mTextViewTitle.setText("Title: " + getItemTitle(ds));
         holder.mTextViewId.setText("Id: " + ds.getId());
+        holder.mImageViewThumbnail.setImageBitmap(getThumbnailBitmap(ds.getFileId()));
 
         // Devices info
         List<String> deviceNames = new ArrayList<>();
@@ -93,6 +158,21 @@ public class DeviceSetListAdapter extends RecyclerView.Adapter<DeviceSetListAdap
         holder.mTextViewDevices.setText("Devices: " + Joiner.on(", ").join(deviceNames));
     }
 
+    private Bitmap getThumbnailBitmap(String fileId) {
+        if (mThumbnailBitmaps.containsKey(fileId)) {
+            return mThumbnailBitmaps.get(fileId);
+        }
+
+        Thumbnail thumbnail = mThumbnails.getItemById(fileId);
+        if (thumbnail == null) {
+            return null;
+        }
+
+        Bitmap bitmap = Thumbnails.decode(thumbnail);
+        mThumbnailBitmaps.put(fileId, bitmap);
+        return bitmap;
+    }
+
     public String getDeviceSetId(int position) {
         return mDeviceSets.getItem(position).getId();
     }
@@ -125,6 +205,10 @@ public class DeviceSetListAdapter extends RecyclerView.Adapter<DeviceSetListAdap
         mFiles = null;
         mDeviceSets.discard();
         mDeviceSets = null;
+        mThumbnails.discard();
+        mThumbnails = null;
+        mThumbnailBitmaps.clear();
+        mMemoryGovernor.unregister(MEMORY_CLIENT_NAME);
     }
 
     /**
@@ -0,0 +1,313 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.v.android.apps.reader.db.DocumentCache;
+import io.v.android.apps.reader.render.BitmapPool;
+import io.v.android.apps.reader.render.DocumentSessions;
+import io.v.android.apps.reader.render.PageCache;
+import io.v.android.apps.reader.render.PageDiskCache;
+import io.v.android.apps.reader.render.RenderProfile;
+
+/**
+ * Owns the budgets of all the caches of the app, and shrinks them when the system runs low on
+ * memory.
+ *
+ * Each cache is registered as a {@link Client} with a priority. On a trim callback, the clients
+ * are shrunk according to how severe the memory pressure is, starting from the lowest priority:
+ * bitmaps which are only kept for reuse go first, then the bitmaps which can be rendered or decoded
+ * again, and the open documents only when the process is about to be killed. The normal budgets
+ * are restored once there has been no trim callback for a while.
+ *
+ * The on-disk caches are registered so that their usage is reported along with the others, but
+ * they are never shrunk, since deleting files does not free any memory.
+ *
+ * All the methods must be called on the main thread.
+ */
+public class MemoryGovernor implements ComponentCallbacks2 {
+
+    private static final String TAG = MemoryGovernor.class.getSimpleName();
+
+    /** Objects kept only to be reused, such as pooled bitmaps. Dropped first. */
+    public static final int PRIORITY_REUSABLE = 0;
+    /** Rendered or decoded bitmaps, which can be created again when needed. */
+    public static final int PRIORITY_REBUILDABLE = 1;
+    /** Open documents, which are expensive to open again. Dropped only as a last resort. */
+    public static final int PRIORITY_WORKING_SET = 2;
+    /** Files on the disk, which are reported but never shrunk. */
+    public static final int PRIORITY_DISK = 3;
+
+    private static final long RESTORE_DELAY_MILLIS = 60 * 1000L;
+
+    private static volatile MemoryGovernor instance;
+
+    /**
+     * A cache whose budget is managed by the governor.
+     */
+    public interface Client {
+        /**
+         * Returns the number of bytes currently held by the cache.
+         */
+        long size();
+
+        /**
+         * Shrinks the budget of the cache to the given fraction of its normal budget, dropping
+         * the entries which do not fit. The normal budget is restored with a fraction of 1.
+         */
+        void trim(float fraction);
+    }
+
+    private static class Registration {
+        final String mName;
+        final int mPriority;
+        final Client mClient;
+
+        Registration(String name, int priority, Client client) {
+            mName = name;
+            mPriority = priority;
+            mClient = client;
+        }
+    }
+
+    private final List<Registration> mRegistrations;
+    private final Handler mHandler;
+    private final Runnable mRestoreTask;
+    private boolean mTrimmed;
+
+    /**
+     * Singleton accessor of the MemoryGovernor class. The process-wide caches are registered when
+     * the governor is created.
+     */
+    public static MemoryGovernor getInstance(Context context) {
+        MemoryGovernor result = instance;
+        if (result == null) {
+            synchronized (MemoryGovernor.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new MemoryGovernor(context.getApplicationContext());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private MemoryGovernor(final Context context) {
+        mRegistrations = new ArrayList<>();
+        mHandler = new Handler(Looper.getMainLooper());
+        mRestoreTask = this::restore;
+
+        final BitmapPool pool = BitmapPool.getInstance();
+        final int poolMaxBytes = pool.maxSize();
+        register("bitmap pool", PRIORITY_REUSABLE, new Client() {
+            @Override
+            public long size() {
+                return pool.size();
+            }
+
+            @Override
+            public void trim(float fraction) {
+                pool.resize(Math.round(poolMaxBytes * fraction));
+            }
+        });
+
+        // The normal budget of the page cache is given by the current RenderProfile.
+        final PageCache pages = PageCache.getInstance();
+        register("page cache", PRIORITY_REBUILDABLE, new Client() {
+            @Override
+            public long size() {
+                return pages.size();
+            }
+
+            @Override
+            public void trim(float fraction) {
+                // The budget of an LruCache must be positive.
+                int maxBytes = RenderProfile.get(context).getPageCacheBytes();
+                pages.resize(Math.max(1, Math.round(maxBytes * fraction)));
+            }
+        });
+
+        final DocumentSessions sessions = DocumentSessions.getInstance(context);
+        register("document sessions", PRIORITY_WORKING_SET, new Client() {
+            @Override
+            public long size() {
+                // The renderers hold native memory, which is not accounted for.
+                return 0;
+            }
+
+            @Override
+            public void trim(float fraction) {
+                if (fraction < 1f) {
+                    sessions.closeIdleSessions();
+                }
+            }
+        });
+
+        // The disk caches are only looked up when their usage is asked for, so that their files are
+        // not scanned while the app starts.
+        register("page disk cache", PRIORITY_DISK, new Client() {
+            @Override
+            public long size() {
+                return PageDiskCache.getInstance(context).size();
+            }
+
+            @Override
+            public void trim(float fraction) {
+                // Nothing to do
+            }
+        });
+
+        register("document cache", PRIORITY_DISK, new Client() {
+            @Override
+            public long size() {
+                return DocumentCache.getInstance(context).size();
+            }
+
+            @Override
+            public void trim(float fraction) {
+                // Nothing to do
+            }
+        });
+    }
+
+    /**
+     * Registers a cache under the given name, which must be unique. If the budgets are currently
+     * shrunk, the new cache is not shrunk until the next trim callback.
+     */
+    public void register(String name, int priority, Client client) {
+        unregister(name);
+
+        int index = 0;
+        while (index < mRegistrations.size()
+                && mRegistrations.get(index).mPriority <= priority) {
+            ++index;
+        }
+        mRegistrations.add(index, new Registration(name, priority, client));
+    }
+
+    /**
+     * Unregisters the cache with the given name, if any.
+     */
+    public void unregister(String name) {
+        for (int i = 0; i < mRegistrations.size(); ++i) {
+            if (mRegistrations.get(i).mName.equals(name)) {
+                mRegistrations.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes held by each registered cache, from the lowest priority to the
+     * highest.
+     */
+    public Map<String, Long> getUsage() {
+        return getUsage(PRIORITY_DISK);
+    }
+
+    /**
+     * Returns the number of bytes held by each registered cache up to the given priority.
+     */
+    private Map<String, Long> getUsage(int maxPriority) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Registration registration : mRegistrations) {
+            if (registration.mPriority <= maxPriority) {
+                result.put(registration.mName, registration.mClient.size());
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // The disk caches are left out, since their sizes are found by scanning their files.
+        Log.i(TAG, "onTrimMemory(" + level + "), usage: " + getUsage(PRIORITY_WORKING_SET));
+
+        for (Registration registration : mRegistrations) {
+            float fraction = getTrimFraction(level, registration.mPriority);
+            if (fraction < 1f) {
+                registration.mClient.trim(fraction);
+            }
+        }
+
+        mTrimmed = true;
+        mHandler.removeCallbacks(mRestoreTask);
+        mHandler.postDelayed(mRestoreTask, RESTORE_DELAY_MILLIS);
+
+        Log.i(TAG, "Usage after trimming: " + getUsage(PRIORITY_WORKING_SET));
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Nothing to do
+    }
+
+    /**
+     * Returns the fraction of the normal budget that a cache of the given priority may keep under
+     * the given trim level.
+     */
+    static float getTrimFraction(int level, int priority) {
+        if (priority >= PRIORITY_DISK) {
+            return 1f;
+        }
+
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            // The process is likely to be killed soon. Drop everything that can be dropped.
+            return 0f;
+        }
+
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            switch (priority) {
+                case PRIORITY_REUSABLE:
+                    return 0f;
+                case PRIORITY_REBUILDABLE:
+                    return 0.25f;
+                default:
+                    return 1f;
+            }
+        }
+
+        // TRIM_MEMORY_UI_HIDDEN or TRIM_MEMORY_RUNNING_MODERATE.
+        switch (priority) {
+            case PRIORITY_REUSABLE:
+                return 0f;
+            case PRIORITY_REBUILDABLE:
+                return 0.5f;
+            default:
+                return 1f;
+        }
+    }
+
+    private void restore() {
+        if (!mTrimmed) {
+            return;
+        }
+
+        Log.i(TAG, "Restoring the cache budgets");
+        for (Registration registration : mRegistrations) {
+            registration.mClient.trim(1f);
+        }
+        mTrimmed = false;
+    }
+
+}
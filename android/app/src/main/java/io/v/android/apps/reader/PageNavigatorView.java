@@ -0,0 +1,312 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.SeekBar;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import io.v.android.apps.reader.render.DocumentSession;
+import io.v.android.apps.reader.render.DocumentSessions;
+import io.v.android.apps.reader.render.PageCache;
+import io.v.android.apps.reader.render.PageKey;
+import io.v.android.apps.reader.render.PageRenderWorker;
+
+/**
+ * A strip of page thumbnails with a scrubber, for jumping to any page of a large document at once.
+ *
+ * The thumbnails are rendered at a low resolution and at the lowest priority, only for the pages
+ * in the visible part of the strip. Dragging the scrubber scrolls the strip without rendering the
+ * pages passed by, and a page is selected only when the scrubber is released or a thumbnail is
+ * clicked.
+ */
+public class PageNavigatorView extends LinearLayout {
+
+    /**
+     * Listener interface for the pages selected by the user.
+     */
+    public interface OnPageSelectedListener {
+        /**
+         * Called when the user selects a page. Page number is one-based.
+         */
+        void onPageSelected(int pageNumber);
+    }
+
+    private DocumentSession mSession;
+    private DocumentSessions.AcquireCallback mPendingLoad;
+    private PageRenderWorker mWorker;
+    private String mFileId;
+    private int mPageCount;
+    private int mPageNumber;
+
+    private OnPageSelectedListener mOnPageSelectedListener;
+    private final RecyclerView mStrip;
+    private final LinearLayoutManager mStripLayoutManager;
+    private final SeekBar mSeekBar;
+    private final TextView mPageText;
+    private final ThumbnailAdapter mAdapter;
+    private final int mThumbnailWidth;
+    private final int mThumbnailHeight;
+
+    public PageNavigatorView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        setOrientation(VERTICAL);
+        LayoutInflater.from(context).inflate(R.layout.page_navigator, this, true);
+
+        mThumbnailWidth = getResources().getDimensionPixelSize(
+                R.dimen.page_navigator_thumbnail_width);
+        mThumbnailHeight = getResources().getDimensionPixelSize(
+                R.dimen.page_navigator_thumbnail_height);
+
+        mAdapter = new ThumbnailAdapter();
+        mStripLayoutManager = new LinearLayoutManager(
+                context, LinearLayoutManager.HORIZONTAL, false);
+        mStrip = (RecyclerView) findViewById(R.id.page_navigator_strip);
+        mStrip.setLayoutManager(mStripLayoutManager);
+
+        mPageText = (TextView) findViewById(R.id.page_navigator_page_text);
+        mSeekBar = (SeekBar) findViewById(R.id.page_navigator_seek_bar);
+        mSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser) {
+                    showPageText(progress + 1);
+                    scrollStripTo(progress + 1);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                // Nothing to do
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                selectPage(seekBar.getProgress() + 1);
+            }
+        });
+    }
+
+    /**
+     * Loads the given PDF file, and shows the given page as the current page once the document is
+     * open. Page number is one-based.
+     *
+     * @param listener notified once the document is open, or could not be opened.
+     */
+    public void loadPdfFile(final String fileId, final int pageNumber,
+                            final PdfViewWrapper.OnLoadListener listener) {
+        cancelPendingLoad();
+
+        // Acquire the new session before releasing the current one, which may be the same.
+        mPendingLoad = new DocumentSessions.AcquireCallback() {
+            @Override
+            public void onAcquired(DocumentSession session) {
+                mPendingLoad = null;
+                showSession(session, fileId, pageNumber);
+                listener.onLoaded();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                mPendingLoad = null;
+                listener.onLoadFailed(e);
+            }
+        };
+        DocumentSessions.getInstance(getContext()).acquire(fileId, mPendingLoad);
+    }
+
+    private void cancelPendingLoad() {
+        if (mPendingLoad != null) {
+            DocumentSessions.getInstance(getContext()).cancel(mPendingLoad);
+            mPendingLoad = null;
+        }
+    }
+
+    private void showSession(DocumentSession session, String fileId, int pageNumber) {
+        unloadPdfFile();
+
+        mSession = session;
+        mWorker = session.getWorker();
+        mFileId = fileId;
+        mPageCount = session.getPageCount();
+
+        mSeekBar.setMax(Math.max(0, mPageCount - 1));
+        mStrip.setAdapter(mAdapter);
+        setPage(pageNumber);
+    }
+
+    /**
+     * Stops displaying the current PDF file, releasing all the thumbnails and the
+     * {@link DocumentSession}.
+     */
+    public void unloadPdfFile() {
+        cancelPendingLoad();
+
+        // Removing the adapter recycles all the thumbnail views, which releases their bitmaps.
+        mStrip.setAdapter(null);
+
+        mWorker = null;
+        if (mSession != null) {
+            DocumentSessions.getInstance(getContext()).release(mSession);
+            mSession = null;
+        }
+        mPageCount = 0;
+        mPageNumber = 0;
+    }
+
+    /**
+     * Shows the given page as the current page, in the middle of the strip. Page number is
+     * one-based.
+     */
+    public void setPage(int pageNumber) {
+        if (mWorker == null || pageNumber < 1 || pageNumber > mPageCount) {
+            return;
+        }
+
+        int previous = mPageNumber;
+        mPageNumber = pageNumber;
+        if (previous > 0) {
+            mAdapter.notifyItemChanged(previous - 1);
+        }
+        mAdapter.notifyItemChanged(pageNumber - 1);
+
+        mSeekBar.setProgress(pageNumber - 1);
+        showPageText(pageNumber);
+        scrollStripTo(pageNumber);
+    }
+
+    public void setOnPageSelectedListener(OnPageSelectedListener listener) {
+        mOnPageSelectedListener = listener;
+    }
+
+    private void selectPage(int pageNumber) {
+        if (mOnPageSelectedListener != null && pageNumber != mPageNumber) {
+            mOnPageSelectedListener.onPageSelected(pageNumber);
+        }
+    }
+
+    private void showPageText(int pageNumber) {
+        mPageText.setText(getResources().getString(
+                R.string.page_navigator_page, pageNumber, mPageCount));
+    }
+
+    private void scrollStripTo(int pageNumber) {
+        int offset = (mStrip.getWidth() - mThumbnailWidth) / 2;
+        mStripLayoutManager.scrollToPositionWithOffset(pageNumber - 1, Math.max(0, offset));
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        unloadPdfFile();
+    }
+
+    private class ThumbnailViewHolder extends RecyclerView.ViewHolder {
+        final ImageView mImageView;
+        int mPageNumber;
+        Bitmap mBitmap;
+
+        ThumbnailViewHolder(View v) {
+            super(v);
+            mImageView = (ImageView) v.findViewById(R.id.page_navigator_item_thumbnail);
+
+            v.setOnClickListener(view -> selectPage(mPageNumber));
+        }
+    }
+
+    private class ThumbnailAdapter extends RecyclerView.Adapter<ThumbnailViewHolder> {
+
+        @Override
+        public ThumbnailViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View v = LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.page_navigator_item, parent, false);
+
+            return new ThumbnailViewHolder(v);
+        }
+
+        @Override
+        public void onBindViewHolder(ThumbnailViewHolder holder, int position) {
+            holder.itemView.setActivated(position + 1 == mPageNumber);
+            if (holder.mPageNumber == position + 1 && holder.mBitmap != null) {
+                return;
+            }
+
+            releaseThumbnail(holder);
+            holder.mPageNumber = position + 1;
+
+            // A view which is bound again while attached does not get attached again.
+            if (holder.itemView.isAttachedToWindow()) {
+                renderThumbnail(holder);
+            }
+        }
+
+        @Override
+        public void onViewAttachedToWindow(ThumbnailViewHolder holder) {
+            if (holder.mBitmap == null) {
+                renderThumbnail(holder);
+            }
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(ThumbnailViewHolder holder) {
+            releaseThumbnail(holder);
+        }
+
+        @Override
+        public void onViewRecycled(ThumbnailViewHolder holder) {
+            releaseThumbnail(holder);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mWorker != null ? mPageCount : 0;
+        }
+
+        private void renderThumbnail(final ThumbnailViewHolder holder) {
+            if (mWorker == null) {
+                return;
+            }
+
+            final int pageNumber = holder.mPageNumber;
+            PageKey key = new PageKey(mFileId, pageNumber, mThumbnailWidth, mThumbnailHeight, 1);
+            mWorker.renderThumbnails(holder, Collections.singletonList(key),
+                    (renderedKey, bitmap) -> {
+                        if (holder.mPageNumber != pageNumber || holder.mBitmap != null) {
+                            PageCache.getInstance().unpin(bitmap);
+                            return;
+                        }
+
+                        holder.mBitmap = bitmap;
+                        holder.mImageView.setImageBitmap(bitmap);
+                    });
+        }
+
+        private void releaseThumbnail(ThumbnailViewHolder holder) {
+            if (mWorker != null) {
+                mWorker.cancel(holder);
+            }
+
+            if (holder.mBitmap != null) {
+                holder.mImageView.setImageBitmap(null);
+                PageCache.getInstance().unpin(holder.mBitmap);
+                holder.mBitmap = null;
+            }
+        }
+    }
+
+}
@@ -6,92 +6,630 @@ package io.v.android.apps.reader;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.pdf.PdfRenderer;
-import android.graphics.pdf.PdfRenderer.Page;
-import android.os.ParcelFileDescriptor;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.widget.ImageView;
 
-import com.google.common.io.ByteStreams;
-
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import io.v.android.apps.reader.db.DB;
+import io.v.android.apps.reader.render.DocumentSession;
+import io.v.android.apps.reader.render.DocumentSessions;
+import io.v.android.apps.reader.render.PageCache;
+import io.v.android.apps.reader.render.PageKey;
+import io.v.android.apps.reader.render.PageRenderWorker;
+import io.v.android.apps.reader.render.PageRenderers;
+import io.v.android.apps.reader.render.RenderProfile;
+import io.v.android.apps.reader.render.ResumeSnapshots;
+import io.v.android.apps.reader.render.Spreads;
+import io.v.android.apps.reader.render.TileRenderer;
+import io.v.android.apps.reader.vdl.SpreadLayout;
 
 /**
  * Wrapper class for the PDF Viewer library.
  *
- * May be replaced with another library if needed.
+ * The PDF library is given by a {@link PageRenderers} backend, so it may be replaced if needed.
+ *
+ * The page can be zoomed in by pinching, in integer zoom levels from 1 to
+ * {@link TileRenderer#MAX_ZOOM}. When zoomed in, the page bitmap is stretched as a placeholder, and
+ * only the visible tiles of the zoomed page are rendered on top of it.
  */
 public class PdfViewWrapper extends ImageView {
 
-    private PdfRenderer mRenderer;
+    /**
+     * Listener interface for zoom level changes made by the user.
+     */
+    public interface OnZoomChangedListener {
+        void onZoomChanged(int zoom);
+    }
+
+    /**
+     * Listener interface for the PDF files being loaded, which are opened in the background.
+     */
+    public interface OnLoadListener {
+        void onLoaded();
+
+        void onLoadFailed(IOException e);
+    }
+
+    private DocumentSession mSession;
+    private DocumentSessions.AcquireCallback mPendingLoad;
+    private PageRenderWorker mWorker;
+    private String mFileId;
+    private int mPageCount;
+    private int mPageNumber;
+    private boolean mPageSettled;
+    private Bitmap mPageBitmap;
+    private ResumeSnapshots.Snapshot mSnapshot;
+    private List<Integer> mPrefetchPages;
+
+    // The resolution of the page bitmap relative to this view, given by the RenderProfile.
+    private float mResolutionScale = 1f;
+
+    // The spread this device is part of, if any, in which only the region of this device is shown.
+    private SpreadLayout mSpread;
+    private String mDeviceId;
+
+    // The source of the pages rendered by a peer, if any.
+    private PageRenderWorker.PageSource mPageSource;
+
+    // Zoom level and the top-left corner of the viewport, in the coordinates of the zoomed page.
+    private int mZoom = 1;
+    private int mPanX;
+    private int mPanY;
+
+    // The tiles of the zoomed page which are currently visible, and the ones already rendered.
+    private Set<PageKey> mVisibleTiles;
+    private Map<PageKey, Bitmap> mTiles;
+    private final Object mTileTarget = new Object();
+
+    // Scale factor and focus of the pinch gesture in progress.
+    private float mPinchScale = 1f;
+    private float mPinchFocusX;
+    private float mPinchFocusY;
+
+    private ScaleGestureDetector mScaleDetector;
+    private GestureDetector mPanDetector;
+    private OnZoomChangedListener mOnZoomChangedListener;
+    private final Paint mPaint;
+    private final Rect mPageRect;
 
     public PdfViewWrapper(Context context, AttributeSet attrs) {
         super(context, attrs);
+
+        mVisibleTiles = new HashSet<>();
+        mTiles = new HashMap<>();
+        mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        mPageRect = new Rect();
+
+        mScaleDetector = new ScaleGestureDetector(context,
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScaleBegin(ScaleGestureDetector detector) {
+                        return mPageBitmap != null && !isSpread();
+                    }
+
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        mPinchScale *= detector.getScaleFactor();
+                        mPinchFocusX = detector.getFocusX();
+                        mPinchFocusY = detector.getFocusY();
+                        invalidate();
+                        return true;
+                    }
+
+                    @Override
+                    public void onScaleEnd(ScaleGestureDetector detector) {
+                        int zoom = Math.round(mZoom * mPinchScale);
+                        mPinchScale = 1f;
+
+                        if (applyZoom(zoom, mPinchFocusX, mPinchFocusY)
+                                && mOnZoomChangedListener != null) {
+                            mOnZoomChangedListener.onZoomChanged(mZoom);
+                        }
+                        invalidate();
+                    }
+                });
+
+        mPanDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float dx, float dy) {
+                if (mZoom <= 1) {
+                    return false;
+                }
+
+                mPanX += Math.round(dx);
+                mPanY += Math.round(dy);
+                clampPan();
+                requestTiles();
+                invalidate();
+                return true;
+            }
+        });
     }
 
     /**
-     * Loads the PDF file at the given path into the pdf.js component within WebView.
+     * Loads the given PDF file, and shows the given page once the document is open. The current
+     * file, if any, stays displayed until then.
+     *
+     * @param listener notified once the document is open, or could not be opened.
      */
-    public void loadPdfFile(final String fileId, final int initialPage) throws IOException {
-        File pdfFile = new File(getContext().getCacheDir(), fileId);
+    public void loadPdfFile(final String fileId, final int initialPage,
+                            final OnLoadListener listener) {
+        cancelPendingLoad();
+
+        // Acquire the new session before releasing the current one, which may be the same.
+        mPendingLoad = new DocumentSessions.AcquireCallback() {
+            @Override
+            public void onAcquired(DocumentSession session) {
+                mPendingLoad = null;
+                showSession(session, fileId, initialPage);
+                listener.onLoaded();
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                mPendingLoad = null;
+                listener.onLoadFailed(e);
+            }
+        };
+        DocumentSessions.getInstance(getContext()).acquire(fileId, mPendingLoad);
+    }
 
-        try (InputStream in = DB.Singleton.get(getContext()).getInputStreamForFile(fileId);
-             FileOutputStream out = new FileOutputStream(pdfFile)) {
-            ByteStreams.copy(in, out);
+    private void cancelPendingLoad() {
+        if (mPendingLoad != null) {
+            DocumentSessions.getInstance(getContext()).cancel(mPendingLoad);
+            mPendingLoad = null;
         }
+    }
+
+    private void showSession(DocumentSession session, String fileId, int initialPage) {
+        unloadPdfFile();
 
-        mRenderer = new PdfRenderer(
-                ParcelFileDescriptor.open(pdfFile, ParcelFileDescriptor.MODE_READ_ONLY));
+        mSession = session;
+        mWorker = session.getWorker();
+        mFileId = fileId;
+        mPageCount = session.getPageCount();
+        mPrefetchPages = Collections.emptyList();
+        mResolutionScale = RenderProfile.get(getContext()).getResolutionScale();
+        mWorker.setPageSource(mPageSource);
 
         setPage(initialPage);
     }
 
+    /**
+     * Stops displaying the current PDF file, and releases its {@link DocumentSession}. The session
+     * stays open for a while, so loading the same file again soon after is cheap.
+     */
+    public void unloadPdfFile() {
+        cancelPendingLoad();
+        if (mWorker != null) {
+            mWorker.cancel(this);
+            mWorker.cancel(mTileTarget);
+            mWorker.setPageSource(null);
+            mWorker = null;
+        }
+        if (mSession != null) {
+            DocumentSessions.getInstance(getContext()).release(mSession);
+            mSession = null;
+        }
+        mPageCount = 0;
+        mPageNumber = 0;
+        mPageSettled = false;
+
+        clearTiles();
+        if (mPageBitmap != null) {
+            setImageBitmap(null);
+            PageCache.getInstance().unpin(mPageBitmap);
+            mPageBitmap = null;
+        }
+    }
+
     /**
      * Jumps to the given page number. Page number is one-based.
      *
+     * The page is rendered in the background, and is displayed once the rendering is done. If this
+     * method is called again before that, the previous page is never displayed. Pages that were
+     * rendered before at the same size are displayed immediately from the {@link PageCache}.
+     * Otherwise, a low resolution preview of the page is displayed until the full page is rendered.
+     *
      * @param pageNumber the page number to jump to. Page number is one-based.
      */
     public void setPage(int pageNumber) {
-        if (pageNumber < 1 || pageNumber > mRenderer.getPageCount()) {
+        if (mWorker == null || pageNumber < 1 || pageNumber > mPageCount) {
             // TODO(youngseokyoon): display not available page.
             return;
         }
 
-        try (Page page = mRenderer.openPage(pageNumber - 1)) {
-            // Create a bitmap that fits the entire view while keeping the aspect ratio of the source.
-            float pageRatio = (float) page.getWidth() / (float) page.getHeight();
-            float viewRatio = (float) getWidth() / (float) getHeight();
-
-            Bitmap bitmap;
-            if (pageRatio >= viewRatio) {
-                bitmap = Bitmap.createBitmap(
-                        getWidth(),
-                        (int) (getWidth() / pageRatio),
-                        Bitmap.Config.ARGB_8888);
-            } else {
-                bitmap = Bitmap.createBitmap(
-                        (int) (getHeight() * pageRatio),
-                        getHeight(),
-                        Bitmap.Config.ARGB_8888);
+        if (pageNumber != mPageNumber) {
+            mPageNumber = pageNumber;
+            mPanX = 0;
+            mPanY = 0;
+            clearTiles();
+        }
+
+        mPageSettled = false;
+
+        PageKey key = getPageKey(pageNumber);
+        mWorker.render(this, key, (renderedKey, bitmap) -> {
+            showPageBitmap(bitmap);
+
+            // Wait for the full page, if this is the preview.
+            if (!renderedKey.equals(key)) {
+                return;
             }
 
-            // Render the page on the bitmap and display it on the ImageView.
-            page.render(bitmap, null, null, Page.RENDER_MODE_FOR_DISPLAY);
-            setImageBitmap(bitmap);
+            mPageSettled = true;
+            requestTiles();
+            submitPrefetch();
+        });
+    }
+
+    public int getZoom() {
+        return mZoom;
+    }
+
+    /**
+     * Shows only the region of this device, if the given layout spreads the page across this
+     * device. Zooming is disabled meanwhile.
+     *
+     * @param layout   the spread layout of the device set, or null.
+     * @param deviceId the id of this device.
+     */
+    public void setSpread(SpreadLayout layout, String deviceId) {
+        PageKey before = mPageNumber > 0 ? getPageKey(mPageNumber) : null;
+        mSpread = layout;
+        mDeviceId = deviceId;
+
+        if (isSpread() && mZoom != 1) {
+            mZoom = 1;
+            mPanX = 0;
+            mPanY = 0;
+            clearTiles();
+        }
+
+        if (before != null && !before.equals(getPageKey(mPageNumber))) {
+            setPage(mPageNumber);
         }
     }
 
-    public int getPageCount() {
-        if (mRenderer == null) {
+    /**
+     * Sets the source of the pages rendered by a peer, or null to render all the pages on this
+     * device. The source applies to the files loaded afterwards as well.
+     */
+    public void setPageSource(PageRenderWorker.PageSource source) {
+        mPageSource = source;
+        if (mWorker != null) {
+            mWorker.setPageSource(source);
+        }
+    }
+
+    private boolean isSpread() {
+        return Spreads.getRegionKey(mSpread, mDeviceId, mFileId, 1) != null;
+    }
+
+    /**
+     * Sets the zoom level, keeping the center of the view at the same position of the page.
+     * The zoom level is clamped between 1 and {@link TileRenderer#MAX_ZOOM}.
+     */
+    public void setZoom(int zoom) {
+        if (applyZoom(zoom, getWidth() / 2f, getHeight() / 2f)) {
+            invalidate();
+        }
+    }
+
+    public void setOnZoomChangedListener(OnZoomChangedListener listener) {
+        mOnZoomChangedListener = listener;
+    }
+
+    /**
+     * Changes the zoom level while keeping the page position under the given focus point.
+     *
+     * @return true if the zoom level was changed.
+     */
+    private boolean applyZoom(int zoom, float focusX, float focusY) {
+        zoom = Math.max(1, Math.min(zoom, TileRenderer.MAX_ZOOM));
+        if (zoom == mZoom || isSpread()) {
+            return false;
+        }
+
+        // The position on the unzoomed page under the focus point.
+        float pageX = (focusX - getPageLeft()) / mZoom;
+        float pageY = (focusY - getPageTop()) / mZoom;
+
+        mZoom = zoom;
+        mPanX = Math.round(pageX * mZoom - focusX);
+        mPanY = Math.round(pageY * mZoom - focusY);
+        clampPan();
+
+        clearTiles();
+        requestTiles();
+        return true;
+    }
+
+    private void clampPan() {
+        if (mPageBitmap == null) {
+            return;
+        }
+
+        int maxPanX = Math.max(0, getPageWidth() * mZoom - getWidth());
+        int maxPanY = Math.max(0, getPageHeight() * mZoom - getHeight());
+        mPanX = Math.max(0, Math.min(mPanX, maxPanX));
+        mPanY = Math.max(0, Math.min(mPanY, maxPanY));
+    }
+
+    /**
+     * Returns the x position of the zoomed page in the view. The page is centered if it is
+     * narrower than the view.
+     */
+    private int getPageLeft() {
+        if (mPageBitmap == null) {
+            return 0;
+        }
+
+        int zoomedWidth = getPageWidth() * mZoom;
+        return zoomedWidth <= getWidth() ? (getWidth() - zoomedWidth) / 2 : -mPanX;
+    }
+
+    /**
+     * Returns the y position of the zoomed page in the view. The page is centered if it is
+     * shorter than the view.
+     */
+    private int getPageTop() {
+        if (mPageBitmap == null) {
             return 0;
         }
 
-        return mRenderer.getPageCount();
+        int zoomedHeight = getPageHeight() * mZoom;
+        return zoomedHeight <= getHeight() ? (getHeight() - zoomedHeight) / 2 : -mPanY;
+    }
+
+    /**
+     * Returns the width of the page fitted into this view at zoom level 1. This is not always the
+     * same as the width of the page bitmap, which may be a low resolution preview.
+     */
+    private int getPageWidth() {
+        return Math.round(mPageBitmap.getWidth() * getPageBitmapScale());
+    }
+
+    /**
+     * Returns the height of the page fitted into this view at zoom level 1.
+     */
+    private int getPageHeight() {
+        return Math.round(mPageBitmap.getHeight() * getPageBitmapScale());
+    }
+
+    private float getPageBitmapScale() {
+        return Math.min(
+                (float) getWidth() / (float) mPageBitmap.getWidth(),
+                (float) getHeight() / (float) mPageBitmap.getHeight());
+    }
+
+    /**
+     * Requests the tiles in the viewport which are not displayed yet, and drops the tiles which
+     * went out of the viewport.
+     */
+    private void requestTiles() {
+        if (mWorker == null || mPageBitmap == null || mZoom <= 1 || !mPageSettled) {
+            return;
+        }
+
+        int left = -getPageLeft();
+        int top = -getPageTop();
+        Rect viewport = new Rect(left, top, left + getWidth(), top + getHeight());
+
+        List<PageKey> visible = TileRenderer.getVisibleTiles(
+                getFullResolutionKey(mPageNumber),
+                getPageWidth(),
+                getPageHeight(),
+                mZoom,
+                viewport);
+
+        mVisibleTiles = new HashSet<>(visible);
+
+        List<PageKey> missing = new ArrayList<>();
+        for (PageKey key : visible) {
+            if (!mTiles.containsKey(key)) {
+                missing.add(key);
+            }
+        }
+
+        for (PageKey key : new ArrayList<>(mTiles.keySet())) {
+            if (!mVisibleTiles.contains(key)) {
+                PageCache.getInstance().unpin(mTiles.remove(key));
+            }
+        }
+
+        mWorker.renderTiles(mTileTarget, missing, (tileKey, tile) -> {
+            if (!mVisibleTiles.contains(tileKey) || mTiles.containsKey(tileKey)) {
+                PageCache.getInstance().unpin(tile);
+                return;
+            }
+
+            mTiles.put(tileKey, tile);
+            invalidate();
+        });
+    }
+
+    private void clearTiles() {
+        if (mWorker != null) {
+            mWorker.cancel(mTileTarget);
+        }
+
+        for (Bitmap tile : mTiles.values()) {
+            PageCache.getInstance().unpin(tile);
+        }
+        mTiles.clear();
+        mVisibleTiles.clear();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        mScaleDetector.onTouchEvent(event);
+        if (!mScaleDetector.isInProgress()) {
+            mPanDetector.onTouchEvent(event);
+        }
+
+        return true;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mPageBitmap == null || (mZoom == 1 && mPinchScale == 1f)) {
+            super.onDraw(canvas);
+            return;
+        }
+
+        canvas.save();
+
+        // Preview the pinch gesture in progress by scaling what is currently displayed.
+        if (mPinchScale != 1f) {
+            canvas.scale(mPinchScale, mPinchScale, mPinchFocusX, mPinchFocusY);
+        }
+
+        canvas.translate(getPageLeft(), getPageTop());
+
+        // Stretch the page bitmap as a placeholder for the tiles that are not rendered yet.
+        mPageRect.set(0, 0, getPageWidth() * mZoom, getPageHeight() * mZoom);
+        canvas.drawBitmap(mPageBitmap, null, mPageRect, mPaint);
+
+        for (Map.Entry<PageKey, Bitmap> entry : mTiles.entrySet()) {
+            PageKey key = entry.getKey();
+            canvas.drawBitmap(entry.getValue(),
+                    key.getTileColumn() * TileRenderer.TILE_SIZE,
+                    key.getTileRow() * TileRenderer.TILE_SIZE,
+                    mPaint);
+        }
+
+        canvas.restore();
+    }
+
+    /**
+     * Displays the given pinned bitmap, and unpins the previously displayed one so that it can be
+     * reused once it is evicted from the cache.
+     */
+    private void showPageBitmap(Bitmap bitmap) {
+        Bitmap previous = mPageBitmap;
+        mPageBitmap = bitmap;
+        mSnapshot = null;
+        setImageBitmap(bitmap);
+
+        if (previous != null) {
+            PageCache.getInstance().unpin(previous);
+        }
+    }
+
+    /**
+     * Shows the given snapshot of a previously displayed page until the first page is rendered.
+     * Does nothing if a page is already displayed.
+     *
+     * @return whether the snapshot is shown.
+     */
+    public boolean showSnapshot(ResumeSnapshots.Snapshot snapshot) {
+        if (mPageBitmap != null) {
+            return false;
+        }
+
+        mSnapshot = snapshot;
+        setImageBitmap(snapshot.getBitmap());
+        return true;
+    }
+
+    /**
+     * Saves the currently displayed page as the snapshot of the given device set, so that it can
+     * be shown immediately when the device set is opened again. Previews are not saved.
+     */
+    public void saveSnapshot(String deviceSetId) {
+        if (mPageBitmap == null || !mPageSettled) {
+            return;
+        }
+
+        // Keep the bitmap from being reused until it is written.
+        final Bitmap bitmap = mPageBitmap;
+        final PageCache cache = PageCache.getInstance();
+        cache.pin(bitmap);
+        ResumeSnapshots.getInstance(getContext())
+                .save(deviceSetId, mPageNumber, bitmap, () -> cache.unpin(bitmap));
+    }
+
+    /**
+     * Renders the given pages into the cache in the background, so that they can be displayed
+     * immediately when the user navigates to them. The prefetching starts once the current page is
+     * displayed, and replaces the previously requested prefetching.
+     *
+     * @param pageNumbers the page numbers to prefetch, in the order of priority.
+     */
+    public void prefetch(List<Integer> pageNumbers) {
+        if (mWorker == null) {
+            return;
+        }
+
+        mPrefetchPages = pageNumbers;
+        if (mPageSettled) {
+            submitPrefetch();
+        }
+    }
+
+    private void submitPrefetch() {
+        List<PageKey> keys = new ArrayList<>();
+        for (int pageNumber : mPrefetchPages) {
+            if (pageNumber >= 1 && pageNumber <= mPageCount) {
+                keys.add(getPageKey(pageNumber));
+            }
+        }
+
+        mPrefetchPages = Collections.emptyList();
+        mWorker.prefetch(keys);
+    }
+
+    /**
+     * Returns the key of the page bitmap, which may be rendered below the resolution of this view
+     * and stretched to fit. In the spread mode, this is the key of the region of this device.
+     */
+    private PageKey getPageKey(int pageNumber) {
+        PageKey region = Spreads.getRegionKey(mSpread, mDeviceId, mFileId, pageNumber);
+        if (region != null) {
+            return region;
+        }
+
+        return new PageKey(mFileId, pageNumber,
+                Math.round(getWidth() * mResolutionScale),
+                Math.round(getHeight() * mResolutionScale),
+                1);
+    }
+
+    /**
+     * Returns the key of the page fitted into this view at full resolution, which the tiles of
+     * the zoomed page are based on.
+     */
+    private PageKey getFullResolutionKey(int pageNumber) {
+        return new PageKey(mFileId, pageNumber, getWidth(), getHeight(), 1);
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        unloadPdfFile();
+
+        if (mSnapshot != null) {
+            setImageBitmap(null);
+            mSnapshot = null;
+        }
     }
 
 }
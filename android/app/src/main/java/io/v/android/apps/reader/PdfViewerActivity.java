@@ -27,19 +27,37 @@ import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import io.v.android.apps.reader.db.DB;
 import io.v.android.apps.reader.db.DB.DBList;
+import io.v.android.apps.reader.db.DocumentCache;
+import io.v.android.apps.reader.model.DeviceInfoFactory;
 import io.v.android.apps.reader.model.IdFactory;
 import io.v.android.apps.reader.model.Listener;
+import io.v.android.apps.reader.render.PageRenderers;
+import io.v.android.apps.reader.render.PeerImagePublisher;
+import io.v.android.apps.reader.render.PeerImageReceiver;
+import io.v.android.apps.reader.render.PeerImages;
+import io.v.android.apps.reader.render.RenderProfile;
+import io.v.android.apps.reader.render.ResumeSnapshots;
+import io.v.android.apps.reader.render.Spreads;
+import io.v.android.apps.reader.render.Thumbnails;
+import io.v.android.apps.reader.vdl.Device;
 import io.v.android.apps.reader.vdl.DeviceMeta;
 import io.v.android.apps.reader.vdl.DeviceSet;
 import io.v.android.apps.reader.vdl.File;
+import io.v.android.apps.reader.vdl.SpreadLayout;
+import io.v.android.apps.reader.vdl.SpreadRegion;
 import io.v.v23.verror.VException;
 import java8.util.stream.StreamSupport;
 
@@ -51,7 +69,6 @@ public class PdfViewerActivity extends BaseReaderActivity
         MessageApi.MessageListener {
 
     private static final String TAG = PdfViewerActivity.class.getSimpleName();
-    private static final int BLOCK_SIZE = 0x1000;   // 4K
 
     private static final String CATEGORY_PAGE_NAVIGATION = "Page Navigation";
     private static final String EXTRA_DEVICE_SET_ID = "device_set_id";
@@ -63,10 +80,27 @@ public class PdfViewerActivity extends BaseReaderActivity
     private ProgressBar mProgressBar;
     private TextView mProgressText;
     private MenuItem mMenuItemLinkPage;
+    private MenuItem mMenuItemContinuousScroll;
+    private MenuItem mMenuItemPageNavigator;
+    private MenuItem mMenuItemSpread;
+    private PageNavigatorView mPageNavigator;
+
+    // Whether the pages are shown in the continuous-scroll view instead of mPdfView.
+    private ContinuousPdfView mContinuousView;
+    private boolean mContinuousScroll;
 
     private DBList<DeviceSet> mDeviceSets;
+    private DBList<Device> mDevices;
+
+    // Rendering the pages for the slower linked devices, and receiving them from a faster one.
+    private PeerImagePublisher mPeerImagePublisher;
+    private PeerImageReceiver mPeerImageReceiver;
     private DeviceSet mCurrentDS;
 
+    // The direction of the last page navigation: 1 for forward, -1 for backward.
+    private int mNavigationDirection = 1;
+    private int mPrefetchDepth;
+
     private CreateAndJoinDeviceSetTask mCreateAndJoinDeviceSetTask;
 
     /**
@@ -91,6 +125,8 @@ public class PdfViewerActivity extends BaseReaderActivity
         setContentView(R.layout.activity_pdf_viewer);
 
         mPdfView = (PdfViewWrapper) findViewById(R.id.pdfview);
+        mContinuousView = (ContinuousPdfView) findViewById(R.id.continuous_pdfview);
+        mPageNavigator = (PageNavigatorView) findViewById(R.id.page_navigator);
         mProgressBar = (ProgressBar) findViewById(R.id.pdf_progress_bar);
         mProgressText = (TextView) findViewById(R.id.pdf_progress_text);
 
@@ -100,18 +136,30 @@ public class PdfViewerActivity extends BaseReaderActivity
                 new SwipeGestureDetector.SimpleOnSwipeListener() {
                     @Override
                     public boolean onSwipeLeft() {
+                        // Swipes are used for panning while the page is zoomed in.
+                        if (mPdfView.getZoom() > 1) {
+                            return false;
+                        }
+
                         nextPage();
                         return true;
                     }
 
                     @Override
                     public boolean onSwipeRight() {
+                        if (mPdfView.getZoom() > 1) {
+                            return false;
+                        }
+
                         prevPage();
                         return true;
                     }
                 });
 
         mPdfView.setOnTouchListener((v, e) -> swipeDetector.onTouchEvent(e));
+        mPdfView.setOnZoomChangedListener(this::setZoom);
+        mContinuousView.setOnPageChangedListener(this::onPageScrolled);
+        mPageNavigator.setOnPageSelectedListener(this::jumpToPage);
 
         mGoogleApiClient = new GoogleApiClient.Builder(this)
                 .addApi(Wearable.API)
@@ -124,10 +172,25 @@ public class PdfViewerActivity extends BaseReaderActivity
     protected void onStart() {
         super.onStart();
 
+        // The profile may have been changed in the settings while this activity was stopped.
+        mPrefetchDepth = RenderProfile.get(this).getPrefetchDepth();
+
         if (!mResolvingError) {
             mGoogleApiClient.connect();
         }
 
+        // Show the page displayed when this device set was last closed, while the DB and the
+        // document are being opened. It is replaced as soon as the actual page is rendered.
+        if (getIntent().hasExtra(EXTRA_DEVICE_SET_ID)) {
+            ResumeSnapshots.getInstance(this).load(getIntent().getStringExtra(EXTRA_DEVICE_SET_ID),
+                    snapshot -> {
+                        if (!isFinishing() && mPdfView.showSnapshot(snapshot)) {
+                            Log.i(TAG, "Showing the snapshot of page " + snapshot.getPage());
+                            showProgressWidgets(false);
+                        }
+                    });
+        }
+
         /**
          * Suppress the start process until the DB initialization is completed.
          * onStart() method will be called again after the user selects her blessings.
@@ -136,6 +199,9 @@ public class PdfViewerActivity extends BaseReaderActivity
             return;
         }
 
+        // The screen sizes of the devices are needed for laying out the spreads.
+        mDevices = getDB().getDeviceList();
+
         mDeviceSets = getDB().getDeviceSetList();
         mDeviceSets.setListener(new Listener() {
             @Override
@@ -150,16 +216,38 @@ public class PdfViewerActivity extends BaseReaderActivity
                 }
 
                 int oldPage = getPage();
+                int oldZoom = getZoom();
                 mCurrentDS = cloneDeviceSet(changed);
                 int newPage = getPage();
+                int newZoom = getZoom();
 
                 DeviceMeta dm = getDeviceMeta();
 
-                if (oldPage != newPage) {
+                // Apply the spread before the page, so that the new page is rendered only once.
+                applySpread();
+                updatePeerImages();
+
+                if (oldZoom != newZoom) {
+                    mPdfView.setZoom(newZoom);
+                }
+
+                // Continuous scroll is only for unlinked reading.
+                if (mContinuousScroll && dm.getLinked()) {
+                    setContinuousScroll(false);
+                }
+
+                // The continuous-scroll view moves on its own, and reports its page to the DB.
+                if (oldPage != newPage && !mContinuousScroll) {
+                    mNavigationDirection = newPage > oldPage ? 1 : -1;
                     mPdfView.setPage(dm.getPage());
+                    prefetchPages();
                     writeNavigationAction("Page Changed", newPage);
                 }
 
+                if (oldPage != newPage) {
+                    mPageNavigator.setPage(newPage);
+                }
+
                 if (mMenuItemLinkPage != null) {
                     mMenuItemLinkPage.setChecked(dm.getLinked());
                 }
@@ -239,7 +327,8 @@ public class PdfViewerActivity extends BaseReaderActivity
             }
         }
 
-        return new DeviceSet(ds.getId(), ds.getFileId(), devicesCopy);
+        SpreadLayout spread = ds.getSpread() != null ? ds.getSpread() : Spreads.none();
+        return new DeviceSet(ds.getId(), ds.getFileId(), devicesCopy, spread);
     }
 
     // TODO(youngseokyoon): generalize these clone methods
@@ -248,7 +337,8 @@ public class PdfViewerActivity extends BaseReaderActivity
             return null;
         }
 
-        return new DeviceMeta(dm.getDeviceId(), dm.getPage(), dm.getZoom(), dm.getLinked());
+        return new DeviceMeta(dm.getDeviceId(), dm.getPage(), dm.getZoom(), dm.getLinked(),
+                dm.getPeerImages());
     }
 
     private void createAndJoinDeviceSet(final Uri fileUri) {
@@ -266,8 +356,29 @@ public class PdfViewerActivity extends BaseReaderActivity
             mDeviceSets.discard();
         }
 
+        if (mDevices != null) {
+            mDevices.discard();
+            mDevices = null;
+        }
+
+        if (mCurrentDS != null) {
+            mPdfView.saveSnapshot(mCurrentDS.getId());
+        }
+
         leaveDeviceSet();
 
+        // Neither the page navigator nor continuous scroll is restored when this activity comes
+        // back.
+        showPageNavigator(false);
+        mContinuousView.unloadPdfFile();
+        if (mContinuousScroll) {
+            showContinuousView(false);
+        }
+
+        // Let the document session go idle while stopped. It is reused if this activity comes back
+        // within the grace period.
+        mPdfView.unloadPdfFile();
+
         super.onStop();
     }
 
@@ -276,6 +387,12 @@ public class PdfViewerActivity extends BaseReaderActivity
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_pdf_viewer, menu);
         mMenuItemLinkPage = menu.findItem(R.id.action_link_page);
+        mMenuItemContinuousScroll = menu.findItem(R.id.action_continuous_scroll);
+        mMenuItemContinuousScroll.setChecked(mContinuousScroll);
+        mMenuItemPageNavigator = menu.findItem(R.id.action_page_navigator);
+        mMenuItemPageNavigator.setChecked(mPageNavigator.getVisibility() == View.VISIBLE);
+        mMenuItemSpread = menu.findItem(R.id.action_spread);
+        applySpread();
         return true;
     }
 
@@ -286,6 +403,22 @@ public class PdfViewerActivity extends BaseReaderActivity
                 toggleLinkedState(item.isChecked());
                 return true;
 
+            case R.id.action_continuous_scroll:
+                setContinuousScroll(!item.isChecked());
+                return true;
+
+            case R.id.action_page_navigator:
+                showPageNavigator(!item.isChecked());
+                return true;
+
+            case R.id.action_spread:
+                setSpread(!item.isChecked());
+                return true;
+
+            case R.id.action_settings:
+                startActivity(new Intent(this, SettingsActivity.class));
+                return true;
+
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -373,12 +506,291 @@ public class PdfViewerActivity extends BaseReaderActivity
         getDB().updateDeviceSet(mCurrentDS);
     }
 
+    /**
+     * Switches between the continuous-scroll view and the single page view. Since the
+     * continuous-scroll view is for reading alone, this device is unlinked when it is turned on.
+     */
+    private void setContinuousScroll(boolean enabled) {
+        DeviceMeta dm = getDeviceMeta();
+        if (dm == null || enabled == mContinuousScroll) {
+            return;
+        }
+
+        writeNavigationAction(enabled ? "Continuous Scroll On" : "Continuous Scroll Off");
+
+        if (enabled) {
+            mContinuousView.loadPdfFile(mCurrentDS.getFileId(), dm.getPage(),
+                    new PdfViewWrapper.OnLoadListener() {
+                        @Override
+                        public void onLoaded() {
+                            showContinuousView(true);
+                            DeviceMeta current = getDeviceMeta();
+                            if (current != null && current.getLinked()) {
+                                toggleLinkedState(true);
+                            }
+                        }
+
+                        @Override
+                        public void onLoadFailed(IOException e) {
+                            handleException(e);
+                        }
+                    });
+        } else {
+            mContinuousView.unloadPdfFile();
+            showContinuousView(false);
+
+            // The single page view was not following the scrolled pages.
+            mPdfView.setPage(dm.getPage());
+            prefetchPages();
+        }
+    }
+
+    private void showContinuousView(boolean show) {
+        mContinuousScroll = show;
+        mContinuousView.setVisibility(show ? View.VISIBLE : View.GONE);
+        mPdfView.setVisibility(show ? View.INVISIBLE : View.VISIBLE);
+
+        if (mMenuItemContinuousScroll != null) {
+            mMenuItemContinuousScroll.setChecked(show);
+        }
+    }
+
+    /**
+     * Shows or hides the page navigator. The navigator holds on to the document and renders its
+     * thumbnails only while it is shown.
+     */
+    private void showPageNavigator(boolean show) {
+        DeviceMeta dm = getDeviceMeta();
+        if (show && dm != null) {
+            mPageNavigator.loadPdfFile(mCurrentDS.getFileId(), dm.getPage(),
+                    new PdfViewWrapper.OnLoadListener() {
+                        @Override
+                        public void onLoaded() {
+                            mPageNavigator.setVisibility(View.VISIBLE);
+                            updatePageNavigatorMenuItem();
+                        }
+
+                        @Override
+                        public void onLoadFailed(IOException e) {
+                            handleException(e);
+                            updatePageNavigatorMenuItem();
+                        }
+                    });
+        } else {
+            mPageNavigator.unloadPdfFile();
+            mPageNavigator.setVisibility(View.GONE);
+        }
+
+        updatePageNavigatorMenuItem();
+    }
+
+    private void updatePageNavigatorMenuItem() {
+        if (mMenuItemPageNavigator != null) {
+            mMenuItemPageNavigator.setChecked(mPageNavigator.getVisibility() == View.VISIBLE);
+        }
+    }
+
+    /**
+     * Moves this device to the given page with a single DB write. If this device is linked, all
+     * the linked devices move by the same number of pages, as far as they all stay within the
+     * document.
+     */
+    private void jumpToPage(int pageNumber) {
+        writeNavigationAction("Jump To Page", pageNumber);
+
+        if (mCurrentDS == null || mPdfView.getPageCount() <= 0) {
+            return;
+        }
+
+        if (mContinuousScroll) {
+            scrollToPage(pageNumber);
+            return;
+        }
+
+        DeviceSet ds = cloneDeviceSet(mCurrentDS);
+        DeviceMeta dm = getDeviceMeta(ds);
+        Map<String, DeviceMeta> devices = dm.getLinked()
+                ? getLinkedDevices(ds)
+                : Collections.singletonMap(getDeviceId(), dm);
+
+        int offset = pageNumber - dm.getPage();
+        offset = Math.max(offset, 1 - getSmallestPage(devices));
+        offset = Math.min(offset, mPdfView.getPageCount() - getLargestPage(devices));
+        if (offset == 0) {
+            return;
+        }
+
+        for (DeviceMeta moved : devices.values()) {
+            moved.setPage(moved.getPage() + offset);
+        }
+        getDB().updateDeviceSet(ds);
+    }
+
+    /**
+     * Turns the spread mode on or off for the linked devices.
+     *
+     * When turned on, the current page of this device is laid out across the screens of all the
+     * linked devices, placed from left to right in the order of the pages they were showing. When
+     * turned off, the devices show consecutive pages again, in the same order.
+     */
+    private void setSpread(boolean enabled) {
+        writeNavigationAction(enabled ? "Spread On" : "Spread Off");
+
+        if (mCurrentDS == null || mDevices == null || mPdfView.getPageCount() <= 0) {
+            return;
+        }
+
+        DeviceSet ds = cloneDeviceSet(mCurrentDS);
+        DeviceMeta dm = getDeviceMeta(ds);
+        if (!dm.getLinked()) {
+            // Only the linked devices take part in a spread.
+            applySpread();
+            return;
+        }
+
+        List<DeviceMeta> linked = new ArrayList<>(getLinkedDevices(ds).values());
+
+        if (enabled) {
+            Collections.sort(linked, (a, b) -> a.getPage() != b.getPage()
+                    ? a.getPage() - b.getPage()
+                    : a.getDeviceId().compareTo(b.getDeviceId()));
+
+            List<Device> devices = new ArrayList<>();
+            for (DeviceMeta meta : linked) {
+                Device device = mDevices.getItemById(meta.getDeviceId());
+                if (device != null && device.getScreen() != null) {
+                    devices.add(device);
+                }
+            }
+
+            int page = dm.getPage();
+            for (DeviceMeta meta : linked) {
+                meta.setPage(page);
+                meta.setZoom(1);
+            }
+            ds.setSpread(Spreads.create(devices));
+        } else {
+            final Map<String, SpreadRegion> regions = Spreads.isEnabled(ds.getSpread())
+                    ? ds.getSpread().getRegions()
+                    : Collections.emptyMap();
+            Collections.sort(linked, (a, b) -> getRegionLeft(regions, a.getDeviceId())
+                    - getRegionLeft(regions, b.getDeviceId()));
+
+            int pageCount = mPdfView.getPageCount();
+            int firstPage = Math.max(1, Math.min(dm.getPage(), pageCount - linked.size() + 1));
+            for (int i = 0; i < linked.size(); ++i) {
+                linked.get(i).setPage(Math.min(firstPage + i, pageCount));
+            }
+            ds.setSpread(Spreads.none());
+        }
+
+        getDB().updateDeviceSet(ds);
+    }
+
+    private static int getRegionLeft(Map<String, SpreadRegion> regions, String deviceId) {
+        SpreadRegion region = regions.get(deviceId);
+        return region != null ? region.getLeft() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Shows the region of this device if the current device set is in the spread mode and this
+     * device is linked, or the whole page otherwise.
+     */
+    private void applySpread() {
+        DeviceMeta dm = getDeviceMeta();
+        boolean spread = dm != null && dm.getLinked() && Spreads.getRegionKey(
+                mCurrentDS.getSpread(), getDeviceId(), mCurrentDS.getFileId(), 1) != null;
+
+        mPdfView.setSpread(spread ? mCurrentDS.getSpread() : null, getDeviceId());
+
+        if (mMenuItemSpread != null) {
+            mMenuItemSpread.setChecked(spread);
+        }
+    }
+
+    /**
+     * Starts or stops rendering the pages for the peers and receiving the pages from a peer,
+     * depending on the role of this device in the current device set. Only the linked devices take
+     * part, since the helper renders the pages the peers are about to show.
+     */
+    private void updatePeerImages() {
+        DeviceMeta dm = getDeviceMeta();
+        boolean linked = dm != null && dm.getLinked() && mDevices != null;
+
+        String helperId = linked ? PeerImages.chooseHelper(mCurrentDS, mDevices) : null;
+
+        if (linked && dm.getPeerImages()) {
+            if (mPeerImageReceiver == null) {
+                long timeoutMillis = getResources().getInteger(R.integer.peer_image_timeout_ms);
+                mPeerImageReceiver = new PeerImageReceiver(getDB(), mCurrentDS.getFileId(),
+                        DeviceInfoFactory.getDevice(this).getScreen(), timeoutMillis);
+                mPdfView.setPageSource(mPeerImageReceiver);
+            }
+
+            // The pages are only waited for while there is a helper to publish them.
+            mPeerImageReceiver.setHelperChosen(helperId != null);
+        } else {
+            stopPeerImageReceiver();
+        }
+
+        if (linked && getDeviceId().equals(helperId)) {
+            if (mPeerImagePublisher == null) {
+                mPeerImagePublisher = new PeerImagePublisher(
+                        this, getDB(), mCurrentDS.getFileId(), getDeviceId());
+            }
+            mPeerImagePublisher.update(mCurrentDS, mDevices);
+        } else {
+            stopPeerImagePublisher();
+        }
+    }
+
+    private void stopPeerImages() {
+        stopPeerImageReceiver();
+        stopPeerImagePublisher();
+    }
+
+    private void stopPeerImageReceiver() {
+        if (mPeerImageReceiver != null) {
+            mPdfView.setPageSource(null);
+            mPeerImageReceiver.close();
+            mPeerImageReceiver = null;
+        }
+    }
+
+    private void stopPeerImagePublisher() {
+        if (mPeerImagePublisher != null) {
+            mPeerImagePublisher.close();
+            mPeerImagePublisher = null;
+        }
+    }
+
+    /**
+     * Reports the page scrolled to in the continuous-scroll view as the page of this device.
+     */
+    private void onPageScrolled(int pageNumber) {
+        writeNavigationAction("Page Scrolled", pageNumber);
+
+        if (mCurrentDS == null) {
+            return;
+        }
+
+        DeviceSet ds = cloneDeviceSet(mCurrentDS);
+        DeviceMeta dm = getDeviceMeta(ds);
+        if (dm.getPage() == pageNumber) {
+            return;
+        }
+
+        dm.setPage(pageNumber);
+        getDB().updateDeviceSet(ds);
+    }
+
     private DeviceMeta createDeviceMeta(int initialPage) {
         int page = initialPage;
         int zoom = 1;
         boolean linked = true;
+        boolean peerImages = PeerImages.isRequested(this);
 
-        return new DeviceMeta(getDeviceId(), page, zoom, linked);
+        return new DeviceMeta(getDeviceId(), page, zoom, linked, peerImages);
     }
 
     private DeviceSet createDeviceSet(File vFile) {
@@ -386,36 +798,49 @@ public class PdfViewerActivity extends BaseReaderActivity
         String fileId = vFile.getId();
         Map<String, DeviceMeta> devices = new HashMap<>();
 
-        DeviceSet ds = new DeviceSet(id, fileId, devices);
+        DeviceSet ds = new DeviceSet(id, fileId, devices, Spreads.none());
         getDB().addDeviceSet(ds);
 
         return ds;
     }
 
-    private void joinDeviceSet(DeviceSet ds) {
-        showProgressWidgets(false);
-
+    private void joinDeviceSet(final DeviceSet ds) {
         Log.i(TAG, "Joining device set: " + ds.getId());
 
         int initialPage = determineInitialPage(ds);
 
-        // Create a new device meta, and update the device set with it.
-        DeviceMeta dm = createDeviceMeta(initialPage);
+        // Create a new device meta, and update the device set with it once the pdf file is open.
+        final DeviceMeta dm = createDeviceMeta(initialPage);
 
-        // Load the pdf file.
-        try {
-            mPdfView.loadPdfFile(ds.getFileId(), dm.getPage());
-        } catch(IOException e) {
-            handleException(e);
-            finish();
-            return;
-        }
+        // Load the pdf file. The file is read from the DB and verified in the background first,
+        // unless it is already in the document cache.
+        mProgressText.setText(R.string.progress_opening_pdf);
+        mProgressBar.setIndeterminate(true);
+        mPdfView.loadPdfFile(ds.getFileId(), dm.getPage(), new PdfViewWrapper.OnLoadListener() {
+            @Override
+            public void onLoaded() {
+                showProgressWidgets(false);
+                addDeviceMeta(ds, dm);
+            }
+
+            @Override
+            public void onLoadFailed(IOException e) {
+                showProgressWidgets(false);
+                handleException(e);
+                finish();
+            }
+        });
+    }
 
+    private void addDeviceMeta(DeviceSet ds, DeviceMeta dm) {
         // TODO(youngseokyoon): don't wait till these operations are finished.
         ds.getDevices().put(dm.getDeviceId(), dm);
         getDB().updateDeviceSet(ds);
 
         mCurrentDS = ds;
+        applySpread();
+        updatePeerImages();
+        prefetchPages();
     }
 
     static int determineInitialPage(final DeviceSet ds) {
@@ -430,12 +855,78 @@ public class PdfViewerActivity extends BaseReaderActivity
         return lastPage + 1;
     }
 
+    /**
+     * Prefetches the pages that this device is likely to show next, given the direction of the last
+     * page navigation and the pages shown by the other linked devices.
+     */
+    private void prefetchPages() {
+        DeviceMeta dm = getDeviceMeta();
+        if (dm == null) {
+            return;
+        }
+
+        // An unlinked device moves on its own. Otherwise, the whole linked set moves together.
+        Map<String, DeviceMeta> devices = dm.getLinked()
+                ? getLinkedDevices(mCurrentDS)
+                : Collections.singletonMap(getDeviceId(), dm);
+
+        mPdfView.prefetch(determinePrefetchPages(
+                dm.getPage(),
+                mNavigationDirection,
+                mPrefetchDepth,
+                getSmallestPage(devices),
+                getLargestPage(devices),
+                mPdfView.getPageCount()));
+    }
+
+    /**
+     * Determines which pages to prefetch, in the order of priority.
+     *
+     * Up to {@code depth} pages are prefetched in the direction of the navigation, and one page in
+     * the opposite direction. Since all the linked devices move by one page together, the pages
+     * which would move any of the linked devices out of the document are never prefetched.
+     *
+     * @param page         the page currently shown on this device.
+     * @param direction    the direction of the last navigation: 1 for forward, -1 for backward.
+     * @param depth        the number of pages to prefetch in the direction of the navigation.
+     * @param smallestPage the smallest page number among the linked devices.
+     * @param largestPage  the largest page number among the linked devices.
+     * @param pageCount    the total number of pages in the document.
+     */
+    static List<Integer> determinePrefetchPages(int page, int direction, int depth,
+                                                int smallestPage, int largestPage,
+                                                int pageCount) {
+        List<Integer> result = new ArrayList<>();
+        if (depth <= 0) {
+            return result;
+        }
+
+        int step = direction < 0 ? -1 : 1;
+        int forwardRoom = pageCount - largestPage;
+        int backwardRoom = smallestPage - 1;
+
+        int leadingRoom = step > 0 ? forwardRoom : backwardRoom;
+        int trailingRoom = step > 0 ? backwardRoom : forwardRoom;
+
+        for (int i = 1; i <= Math.min(depth, leadingRoom); ++i) {
+            result.add(page + step * i);
+        }
+
+        if (trailingRoom > 0) {
+            result.add(page - step);
+        }
+
+        return result;
+    }
+
     private void leaveDeviceSet() {
         if (mCurrentDS == null) {
             return;
         }
 
         Log.i(TAG, "Leaving device set: " + mCurrentDS.getId());
+        stopPeerImages();
+
         Map<String, DeviceMeta> devices = mCurrentDS.getDevices();
         devices.remove(getDeviceId());
 
@@ -470,6 +961,39 @@ public class PdfViewerActivity extends BaseReaderActivity
         return dm.getPage();
     }
 
+    private int getZoom() {
+        DeviceMeta dm = getDeviceMeta();
+        if (dm == null) {
+            return 1;
+        }
+
+        return dm.getZoom();
+    }
+
+    /**
+     * Set the zoom level of this device, and of all the linked devices if this device is linked.
+     */
+    private void setZoom(int zoom) {
+        writeNavigationAction("Zoom Changed", zoom);
+
+        if (mCurrentDS == null) {
+            return;
+        }
+
+        DeviceSet ds = cloneDeviceSet(mCurrentDS);
+        DeviceMeta dm = getDeviceMeta(ds);
+
+        if (!dm.getLinked()) {
+            dm.setZoom(zoom);
+        } else {
+            for (DeviceMeta linked : getLinkedDevices(ds).values()) {
+                linked.setZoom(zoom);
+            }
+        }
+
+        getDB().updateDeviceSet(ds);
+    }
+
     /**
      * Move all the linked pages to their previous pages.
      */
@@ -480,6 +1004,11 @@ public class PdfViewerActivity extends BaseReaderActivity
             return;
         }
 
+        if (mContinuousScroll) {
+            scrollToPage(mContinuousView.getPage() - 1);
+            return;
+        }
+
         DeviceSet ds = cloneDeviceSet(mCurrentDS);
 
         // First, check if this device is linked or not.
@@ -518,6 +1047,11 @@ public class PdfViewerActivity extends BaseReaderActivity
             return;
         }
 
+        if (mContinuousScroll) {
+            scrollToPage(mContinuousView.getPage() + 1);
+            return;
+        }
+
         DeviceSet ds = cloneDeviceSet(mCurrentDS);
 
         // First, check if this device is linked or not.
@@ -546,6 +1080,15 @@ public class PdfViewerActivity extends BaseReaderActivity
         }
     }
 
+    private void scrollToPage(int pageNumber) {
+        if (pageNumber < 1 || pageNumber > mContinuousView.getPageCount()) {
+            return;
+        }
+
+        mContinuousView.setPage(pageNumber);
+        onPageScrolled(pageNumber);
+    }
+
     private Map<String, DeviceMeta> getLinkedDevices(DeviceSet ds) {
         if (ds == null) {
             return null;
@@ -657,14 +1200,41 @@ public class PdfViewerActivity extends BaseReaderActivity
                 uri = uris[0];
                 Log.i(TAG, "CreateAndJoinDeviceSetTask$doInBackground: " + uri.toString());
 
-                byte[] bytes = getBytesFromUri(uri);
-                if (isCancelled()) {
+                DocumentCache cache = DocumentCache.getInstance(PdfViewerActivity.this);
+                DocumentCache.StagedFile staged = stageFile(uri);
+                if (staged == null || isCancelled()) {
                     return null;
                 }
 
-                File file = createFile(bytes, getTitleFromUri(uri));
-                if (isCancelled()) {
-                    return null;
+                File file;
+                try {
+                    // The same content may have been shared before, possibly by an earlier version
+                    // which identified it by its MD5.
+                    file = getDB().getFile(staged.getId());
+                    if (file == null) {
+                        file = getDB().getFile(staged.getLegacyId());
+                    }
+
+                    if (file != null) {
+                        Log.i(TAG, "Reusing the existing file: " + file);
+                        cache.commit(staged, file.getId());
+
+                        // An upload of the same content may have been interrupted before.
+                        getDB().discardUpload(staged.getId());
+                    } else {
+                        file = createFile(staged, getTitleFromUri(uri));
+                        if (file == null || isCancelled()) {
+                            return null;
+                        }
+
+                        // Keep the staged copy as the materialized file, to render the thumbnail.
+                        cache.commit(staged);
+
+                        publishProgress(R.string.progress_creating_thumbnail, -1);
+                        createThumbnail(file);
+                    }
+                } finally {
+                    cache.discard(staged);
                 }
 
                 publishProgress(R.string.progress_creating_device_set, -1);
@@ -709,60 +1279,54 @@ public class PdfViewerActivity extends BaseReaderActivity
             joinDeviceSet(ds);
         }
 
-        private byte[] getBytesFromUri(final Uri uri) throws IOException {
-            Log.i(TAG, "getBytesFromUri: " + uri.toString());
-
-            InputStream in = getContentResolver().openInputStream(uri);
-            int total = in.available();
-            int available = total;
-
-            publishProgress(R.string.progress_reading_source_pdf, total);
-
-            byte[] result = new byte[available];
-            int cur = 0;
-            int bytesRead;
-
-            while ((bytesRead = in.read(result, cur, Math.min(BLOCK_SIZE, available))) != -1 &&
-                    available > 0) {
-                cur += bytesRead;
-                available -= bytesRead;
-
-                publishProgress(cur);
-
-                if (isCancelled()) {
-                    in.close();
-                    return null;
-                }
+        /**
+         * Copies the content of the given uri to a staged file, computing its file id on the way.
+         *
+         * @return the staged file, or null if the task was cancelled.
+         */
+        private DocumentCache.StagedFile stageFile(final Uri uri) throws IOException {
+            // The size is only used for the progress, and may be unknown.
+            long size = getSizeFromUri(uri);
+            publishProgress(R.string.progress_reading_source_pdf,
+                    size > 0 ? (int) Math.min(size, Integer.MAX_VALUE) : -1);
+
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                return DocumentCache.getInstance(PdfViewerActivity.this).stage(in, bytesStaged ->
+                        publishProgress((int) Math.min(bytesStaged, Integer.MAX_VALUE)));
+            } catch (InterruptedIOException e) {
+                return null;
             }
-
-            in.close();
-
-            return result;
         }
 
-        private File createFile(final byte[] bytes, final String title) throws Exception {
-
-            publishProgress(R.string.progress_writing_pdf, bytes.length);
+        /**
+         * Writes the content of the given staged file into a new file in the db. The upload is
+         * identified by the file id, so if the task is cancelled, sharing the same content again
+         * resumes the upload where it stopped.
+         *
+         * @return the new file, or null if the task was cancelled.
+         */
+        private File createFile(final DocumentCache.StagedFile staged, final String title)
+                throws Exception {
+            publishProgress(R.string.progress_writing_pdf,
+                    (int) Math.min(staged.getSize(), Integer.MAX_VALUE));
 
             // Create a vdl File object representing this pdf file and put it in the db.
-            DB.FileBuilder builder;
-            builder = getDB().getFileBuilder(title);
+            DB.FileBuilder builder = getDB().getFileBuilder(title, staged.getId());
 
-            int cur = 0;
-            int available = bytes.length;
-
-            while (available > 0) {
-                int numBytes = Math.min(BLOCK_SIZE, available);
-                builder.write(bytes, cur, numBytes);
-                cur += numBytes;
-                available -= numBytes;
-
-                publishProgress(cur);
+            try (InputStream in = new FileInputStream(staged.getFile())) {
+                builder.write(in, bytesWritten ->
+                        publishProgress((int) Math.min(bytesWritten, Integer.MAX_VALUE)));
+            } catch (InterruptedIOException e) {
+                builder.pause();
+                return null;
+            } catch (IOException e) {
+                builder.cancel();
+                throw e;
+            }
 
-                if (isCancelled()) {
-                    builder.cancel();
-                    return null;
-                }
+            if (isCancelled()) {
+                builder.pause();
+                return null;
             }
 
             publishProgress(R.string.progress_finishing_up_writing, -1);
@@ -777,6 +1341,41 @@ public class PdfViewerActivity extends BaseReaderActivity
             return vFile;
         }
 
+        /**
+         * Renders the thumbnail of the given file and puts it in the db. The materialized file is
+         * left in the {@link DocumentCache}, where it is reused when joining the device set.
+         */
+        private void createThumbnail(File file) {
+            try {
+                java.io.File pdfFile = DocumentCache.getInstance(PdfViewerActivity.this)
+                        .getFile(getDB(), file.getId());
+                getDB().addThumbnail(Thumbnails.create(file.getId(), pdfFile,
+                        PageRenderers.getFactory(PdfViewerActivity.this)));
+            } catch (IOException e) {
+                // The thumbnail is optional, so the device set is created anyway.
+                Log.e(TAG, "Could not create the thumbnail for file " + file.getId() + ": "
+                        + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Returns the size of the content of the given uri in bytes, or -1 if it is unknown.
+         */
+        private long getSizeFromUri(Uri uri) {
+            try (Cursor cursor = getContentResolver().query(uri, null, null, null, null)) {
+                if (cursor != null && cursor.moveToFirst()) {
+                    int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                    if (sizeIndex >= 0 && !cursor.isNull(sizeIndex)) {
+                        return cursor.getLong(sizeIndex);
+                    }
+                }
+            } catch (Exception e) {
+                handleException(e);
+            }
+
+            return -1L;
+        }
+
         private String getTitleFromUri(Uri uri) {
             try {
                 Cursor cursor = getContentResolver().query(uri, null, null, null, null);
@@ -0,0 +1,148 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+
+import io.v.android.apps.reader.model.ChunkedHash;
+
+/**
+ * Base class of the {@link DB.FileBuilder}s, which hashes the content as it is written, and
+ * streams the content of an {@link InputStream} through a reusable buffer.
+ *
+ * A builder may resume an upload which was interrupted, in which case the start of the content is
+ * already stored. The whole content is still written to the builder, but only the rest of it is
+ * passed to {@link #writeContent}, and the chunks which were hashed before are skipped entirely.
+ * The stored part is not read back: the uploads are saved under the id of their content, so the
+ * saved chunk hashes are taken to describe it.
+ */
+abstract class AbstractFileBuilder implements DB.FileBuilder {
+
+    private static final int BUFFER_SIZE = 0x10000;   // 64K
+
+    private final ChunkedHash.Hasher mHasher;
+    private final long mHashedBytes;
+    private final long mStoredBytes;
+
+    private long mSize;
+    private byte[] mBuffer;
+
+    AbstractFileBuilder() {
+        this(0L, null);
+    }
+
+    /**
+     * Creates a builder for the rest of an interrupted upload.
+     *
+     * @param storedBytes the number of bytes at the start of the content which are stored.
+     * @param chunkHashes the hashes of the chunks at the start of the content, or null. Only the
+     *                    ones within the stored bytes are used.
+     */
+    AbstractFileBuilder(long storedBytes, List<byte[]> chunkHashes) {
+        if (chunkHashes != null) {
+            int count = (int) Math.min(chunkHashes.size(), storedBytes / ChunkedHash.CHUNK_SIZE);
+            chunkHashes = chunkHashes.subList(0, count);
+        }
+
+        mHasher = new ChunkedHash.Hasher(chunkHashes);
+        mHashedBytes = chunkHashes != null
+                ? (long) chunkHashes.size() * ChunkedHash.CHUNK_SIZE : 0L;
+        mStoredBytes = storedBytes;
+        mSize = 0L;
+    }
+
+    /**
+     * Stores the given part of the content, which comes right after the part stored so far.
+     */
+    protected abstract void writeContent(byte[] b, int off, int len) throws IOException;
+
+    @Override
+    public final void write(byte[] b, int off, int len) throws IOException {
+        // Drop the part which was hashed before.
+        int n = (int) Math.max(0L, Math.min(len, mHashedBytes - mSize));
+        mSize += n;
+        off += n;
+        len -= n;
+
+        // Hash the part which was stored before.
+        n = (int) Math.max(0L, Math.min(len, mStoredBytes - mSize));
+        if (n > 0) {
+            mHasher.update(b, off, n);
+            mSize += n;
+            off += n;
+            len -= n;
+        }
+
+        if (len > 0) {
+            writeContent(b, off, len);
+            mHasher.update(b, off, len);
+            mSize += len;
+        }
+    }
+
+    @Override
+    public void write(InputStream in, DB.ProgressListener listener) throws IOException {
+        skip(in, mHashedBytes - mSize);
+
+        if (mBuffer == null) {
+            mBuffer = new byte[BUFFER_SIZE];
+        }
+
+        int bytesRead;
+        while ((bytesRead = in.read(mBuffer)) != -1) {
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Writing the file was interrupted");
+            }
+
+            write(mBuffer, 0, bytesRead);
+
+            if (listener != null) {
+                listener.onProgress(mSize);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the content written so far, including the part stored by
+     * an interrupted upload.
+     */
+    protected long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Returns the hashes of the chunks at the start of the content which are already hashed.
+     */
+    protected List<byte[]> getHashedChunks() {
+        return mHasher.getHashedChunks();
+    }
+
+    /**
+     * Waits for the content to be hashed, and returns the hash of the whole content.
+     */
+    protected ChunkedHash finishHash() throws IOException {
+        return mHasher.finish();
+    }
+
+    private void skip(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                // Some streams skip nothing before the end, so read a byte to tell.
+                if (in.read() == -1) {
+                    throw new IOException("The content is shorter than the stored part");
+                }
+                skipped = 1;
+            }
+
+            count -= skipped;
+            mSize += skipped;
+        }
+    }
+
+}
@@ -13,10 +13,13 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 
+import io.v.android.apps.reader.model.IdFactory;
 import io.v.android.apps.reader.model.Listener;
 import io.v.android.apps.reader.vdl.Device;
 import io.v.android.apps.reader.vdl.DeviceSet;
 import io.v.android.apps.reader.vdl.File;
+import io.v.android.apps.reader.vdl.PageImage;
+import io.v.android.apps.reader.vdl.Thumbnail;
 
 /**
  * Provides high-level methods for getting and setting the state of PDF reader.
@@ -47,10 +50,38 @@ public interface DB {
 
     interface FileBuilder extends Closeable {
         void write(byte[] b, int off, int len) throws IOException;
+
+        /**
+         * Writes the rest of the given stream through a buffer of a bounded size, so that files of
+         * any size are written with constant memory. The stream is not closed.
+         *
+         * A builder which resumes an interrupted upload skips the part of the stream which was
+         * stored before.
+         *
+         * @param in       the stream to read the file content from.
+         * @param listener notified of the number of bytes of the content written so far, including
+         *                 the part stored before, or null.
+         * @throws java.io.InterruptedIOException if the calling thread is interrupted.
+         */
+        void write(InputStream in, ProgressListener listener) throws IOException;
+
+        /**
+         * Stops writing and keeps the content written so far, so that a builder for the same
+         * upload id resumes the upload. Builders which cannot resume an upload cancel it instead.
+         */
+        void pause();
+
         void cancel();
         File build();
     }
 
+    /**
+     * Listener interface for the progress of writing a file.
+     */
+    interface ProgressListener {
+        void onProgress(long bytesWritten);
+    }
+
     /**
      * Perform initialization steps.  This method must be called early in the lifetime
      * of the activity.  As part of the initialization, it might send an intent to
@@ -125,6 +156,30 @@ public interface DB {
      */
     DBList<DeviceSet> getDeviceSetList();
 
+    /**
+     * Gets the list of the thumbnails of the PDF files.
+     *
+     * @return a list of thumbnails, whose ids are the ids of their files.
+     */
+    DBList<Thumbnail> getThumbnailList();
+
+    /**
+     * Gets the list of the page images rendered by the devices for their peers.
+     *
+     * @return a list of page images, whose ids are given by {@link IdFactory#getPageImageId}.
+     */
+    DBList<PageImage> getPageImageList();
+
+    /**
+     * Gets the file with the given id, if its content is stored in the db. Since the file ids are
+     * content hashes, this finds the files with the same content.
+     *
+     * @param id the id of the file.
+     * @return   the file, or null if there is no such file or its content is not stored.
+     * @throws Exception if the db could not be read.
+     */
+    File getFile(String id) throws Exception;
+
     /**
      * Adds a new file to the db.
      *
@@ -139,6 +194,27 @@ public interface DB {
      */
     void deleteFile(String id);
 
+    /**
+     * Adds the thumbnail of a file to the db.
+     *
+     * @param thumbnail the thumbnail to be added.
+     */
+    void addThumbnail(Thumbnail thumbnail);
+
+    /**
+     * Adds the image of a page rendered for a peer to the db.
+     *
+     * @param image the page image to be added.
+     */
+    void addPageImage(PageImage image);
+
+    /**
+     * Deletes a page image with the given id.
+     *
+     * @param id the id of the page image.
+     */
+    void deletePageImage(String id);
+
     /**
      * Adds a new device set to the db.
      *
@@ -164,10 +240,24 @@ public interface DB {
      * Returns a {@link FileBuilder} object on which the user can write the file content and finally
      * obtain the {@link File} object representing the pdf file.
      *
-     * @param title title of this file.
-     * @return      a {@link FileBuilder} object for building the {@link File}.
+     * If an earlier upload with the same upload id was paused or interrupted, the builder resumes
+     * it. The whole content must still be written to the builder, but the part which was stored
+     * before is not written again.
+     *
+     * @param title    title of this file.
+     * @param uploadId the id of the upload, such as the id of the file content, or null if the
+     *                 upload cannot be resumed.
+     * @return         a {@link FileBuilder} object for building the {@link File}.
+     */
+    FileBuilder getFileBuilder(String title, String uploadId) throws Exception;
+
+    /**
+     * Forgets the paused or interrupted upload with the given id, if any, and deletes the part of
+     * the content which it stored. Used when the content turns out to be stored already.
+     *
+     * @param uploadId the id of the upload, as given to {@link #getFileBuilder}.
      */
-    FileBuilder getFileBuilder(String title) throws Exception;
+    void discardUpload(String uploadId);
 
     /**
      * Opens an {@link InputStream} for the given file.
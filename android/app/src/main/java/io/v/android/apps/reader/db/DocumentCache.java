@@ -0,0 +1,371 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import io.v.android.apps.reader.R;
+import io.v.android.apps.reader.model.ChunkedHash;
+
+/**
+ * Content-addressed cache of the PDF files materialized from the DB, so that a file does not have
+ * to be read from its blob again every time it is opened.
+ *
+ * The files are stored under the app cache directory, named after their file ids. Since the file
+ * ids are content hashes, an existing copy is always up to date. Copies are written to a temporary
+ * file, verified against the file id, and renamed when complete, so an existing copy is always
+ * complete and intact as well. The least recently opened files are deleted when the total size
+ * exceeds the quota. This class is thread-safe.
+ *
+ * New files are staged here while they are being added, so that their ids are known before their
+ * content is written to the DB, and the content of an existing file is never written again.
+ */
+public class DocumentCache {
+
+    private static final String TAG = DocumentCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "documents";
+    private static final String EXTENSION = ".pdf";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final long TRANSFER_SIZE = 0x100000;     // 1M
+    private static final int STAGING_BUFFER_SIZE = 0x10000;  // 64K
+
+    // Files written directly under the cache directory by the earlier versions of this app.
+    private static final String LEGACY_FILE_PATTERN = "[0-9a-f]{32}";
+
+    private static volatile DocumentCache instance;
+
+    private final File mDirectory;
+    private long mMaxBytes;
+
+    /**
+     * Singleton accessor of the DocumentCache class. The quota is given by the
+     * {@code document_cache_mb} resource.
+     */
+    public static DocumentCache getInstance(Context context) {
+        DocumentCache result = instance;
+        if (result == null) {
+            synchronized (DocumentCache.class) {
+                result = instance;
+                if (result == null) {
+                    long maxBytes = context.getResources().getInteger(R.integer.document_cache_mb)
+                            * 1024L * 1024L;
+                    instance = result = new DocumentCache(
+                            new File(context.getCacheDir(), DIRECTORY_NAME), maxBytes);
+                    result.deleteStaleFiles(context.getCacheDir());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a new document cache.
+     *
+     * @param directory the directory to store the files in.
+     * @param maxBytes  the maximum total size of the files in bytes.
+     */
+    public DocumentCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a local copy of the given file, reading it from the DB only if there is no complete
+     * copy in the cache yet. Since the whole file may be read and verified, this must not be
+     * called on the main thread.
+     *
+     * @param db     the DB to read the file from.
+     * @param fileId the id of the file.
+     * @return       the local copy of the file.
+     * @throws IOException if the file could not be read from the DB, or the copy is corrupt.
+     */
+    public File getFile(DB db, String fileId) throws IOException {
+        File file = new File(mDirectory, fileId + EXTENSION);
+
+        synchronized (this) {
+            if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+        }
+
+        mDirectory.mkdirs();
+
+        // Each writer uses its own temporary file, in case the same file is opened concurrently.
+        File temp = File.createTempFile(fileId, TEMP_EXTENSION, mDirectory);
+        try (InputStream in = db.getInputStreamForFile(fileId)) {
+            if (in == null) {
+                throw new IOException("Could not read the file " + fileId + " from the DB");
+            }
+
+            copy(in, temp);
+            verify(db, fileId, temp);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not rename " + temp + " to " + file);
+            }
+
+            trimToSize(file);
+        }
+
+        return file;
+    }
+
+    /**
+     * A local copy of a new file, whose id is computed while it is being staged.
+     */
+    public static class StagedFile {
+        private final File mFile;
+        private final String mId;
+        private final String mLegacyId;
+        private final long mSize;
+
+        private StagedFile(File file, String id, String legacyId, long size) {
+            mFile = file;
+            mId = id;
+            mLegacyId = legacyId;
+            mSize = size;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public String getId() {
+            return mId;
+        }
+
+        /**
+         * Returns the id that the earlier versions of this app gave to the same content, which is
+         * the MD5 of the whole content.
+         */
+        public String getLegacyId() {
+            return mLegacyId;
+        }
+
+        public long getSize() {
+            return mSize;
+        }
+    }
+
+    /**
+     * Copies the given stream to a temporary file while computing its file id, in a single pass.
+     * The legacy id is computed along the way as well, so that the content shared by the earlier
+     * versions can be found. The staged file must be either committed or discarded. The stream is
+     * not closed.
+     *
+     * @param in       the stream to read the file content from.
+     * @param listener notified of the number of bytes staged so far, or null.
+     * @throws InterruptedIOException if the calling thread is interrupted.
+     */
+    public StagedFile stage(InputStream in, DB.ProgressListener listener) throws IOException {
+        mDirectory.mkdirs();
+
+        File temp = File.createTempFile("staged", TEMP_EXTENSION, mDirectory);
+        ChunkedHash.LegacyHasher hasher = new ChunkedHash.LegacyHasher();
+        byte[] buffer = new byte[STAGING_BUFFER_SIZE];
+        long size = 0L;
+
+        try (OutputStream out = new FileOutputStream(temp)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Staging the file was interrupted");
+                }
+
+                out.write(buffer, 0, bytesRead);
+                hasher.update(buffer, 0, bytesRead);
+                size += bytesRead;
+
+                if (listener != null) {
+                    listener.onProgress(size);
+                }
+            }
+            return new StagedFile(temp, hasher.finish().getId(), hasher.finishLegacyId(), size);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Keeps the given staged file as the local copy of the file with its id, so that it does not
+     * have to be read from the DB again.
+     *
+     * @return the local copy of the file.
+     */
+    public File commit(StagedFile staged) throws IOException {
+        return commit(staged, staged.getId());
+    }
+
+    /**
+     * Keeps the given staged file as the local copy of the file with the given id, which is
+     * either its id or its legacy id.
+     *
+     * @return the local copy of the file.
+     */
+    public File commit(StagedFile staged, String fileId) throws IOException {
+        File file = new File(mDirectory, fileId + EXTENSION);
+
+        synchronized (this) {
+            if (file.exists()) {
+                // The same content was already materialized.
+                staged.getFile().delete();
+                file.setLastModified(System.currentTimeMillis());
+                return file;
+            }
+
+            if (!staged.getFile().renameTo(file)) {
+                staged.getFile().delete();
+                throw new IOException("Could not rename " + staged.getFile() + " to " + file);
+            }
+
+            trimToSize(file);
+        }
+
+        return file;
+    }
+
+    /**
+     * Deletes the given staged file, unless it is already committed.
+     */
+    public void discard(StagedFile staged) {
+        staged.getFile().delete();
+    }
+
+    /**
+     * Checks the given copy of a file against its id, using the chunk hashes recorded in the DB
+     * to tell which chunks are corrupt. The files added by the earlier versions have no chunk
+     * hashes, and are checked against the MD5 of their whole content instead.
+     */
+    private static void verify(DB db, String fileId, File copy) throws IOException {
+        io.v.android.apps.reader.vdl.File record;
+        try {
+            record = db.getFile(fileId);
+        } catch (Exception e) {
+            throw new IOException("Could not read the record of the file " + fileId, e);
+        }
+        boolean chunked = record != null && record.getChunkSize() == ChunkedHash.CHUNK_SIZE;
+
+        if (!ChunkedHash.verify(copy, fileId, chunked ? record.getChunkHashes() : null)) {
+            throw new IOException("The copy of the file " + fileId + " is corrupt");
+        }
+    }
+
+    private static void copy(InputStream in, File dest) throws IOException {
+        try (ReadableByteChannel src = Channels.newChannel(in);
+             FileChannel dst = new FileOutputStream(dest).getChannel()) {
+            long position = 0L;
+            long transferred;
+            while ((transferred = dst.transferFrom(src, position, TRANSFER_SIZE)) > 0) {
+                position += transferred;
+            }
+            dst.force(false);
+        }
+    }
+
+    /**
+     * Changes the quota of this cache, deleting the least recently opened files if needed.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimToSize(null);
+    }
+
+    public synchronized long size() {
+        long result = 0L;
+        for (File file : listFiles()) {
+            result += file.length();
+        }
+
+        return result;
+    }
+
+    public synchronized long maxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Deletes the least recently opened files until the total size is within the quota.
+     *
+     * @param keep a file which must not be deleted, or null.
+     */
+    private void trimToSize(File keep) {
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+
+        long size = 0L;
+        for (File file : files) {
+            size += file.length();
+        }
+
+        for (File file : files) {
+            if (size <= mMaxBytes) {
+                break;
+            }
+
+            if (file.equals(keep)) {
+                continue;
+            }
+
+            long length = file.length();
+            if (file.delete()) {
+                Log.i(TAG, "Evicted " + file.getName());
+                size -= length;
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Deletes the leftovers from interrupted writes and the files written by the earlier versions
+     * of this app. Only called before this cache is first used.
+     */
+    private void deleteStaleFiles(File cacheDir) {
+        deleteFiles(mDirectory.listFiles((dir, name) -> name.endsWith(TEMP_EXTENSION)));
+        deleteFiles(cacheDir.listFiles((dir, name) -> name.matches(LEGACY_FILE_PATTERN)));
+    }
+
+    private static void deleteFiles(File[] files) {
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+}
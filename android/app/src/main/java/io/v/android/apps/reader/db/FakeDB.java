@@ -16,17 +16,19 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 
 import io.v.android.apps.reader.Constants;
+import io.v.android.apps.reader.model.ChunkedHash;
 import io.v.android.apps.reader.model.DeviceInfoFactory;
+import io.v.android.apps.reader.model.IdFactory;
 import io.v.android.apps.reader.model.Listener;
 import io.v.android.apps.reader.vdl.Device;
 import io.v.android.apps.reader.vdl.DeviceSet;
 import io.v.android.apps.reader.vdl.File;
-import io.v.v23.vom.VomUtil;
+import io.v.android.apps.reader.vdl.PageImage;
+import io.v.android.apps.reader.vdl.Thumbnail;
 
 /**
  * A fake implementation of the DB interface for manual testing.
@@ -39,12 +41,16 @@ public class FakeDB implements DB {
     private FakeFileList mFileList;
     private FakeDeviceList mDeviceList;
     private FakeDeviceSetList mDeviceSetList;
+    private FakeThumbnailList mThumbnailList;
+    private FakePageImageList mPageImageList;
 
     public FakeDB(Context context) {
         mContext = context;
         mFileList = new FakeFileList();
         mDeviceList = new FakeDeviceList();
         mDeviceSetList = new FakeDeviceSetList();
+        mThumbnailList = new FakeThumbnailList();
+        mPageImageList = new FakePageImageList();
 
         mDeviceList.addItem(DeviceInfoFactory.getDevice(context));
     }
@@ -147,25 +153,38 @@ public class FakeDB implements DB {
         }
     }
 
-    private class FakeFileBuilder implements FileBuilder {
+    static class FakeThumbnailList extends BaseFakeList<Thumbnail> {
+        public String getId(Thumbnail thumbnail) {
+            return thumbnail.getFileId();
+        }
+    }
+
+    static class FakePageImageList extends BaseFakeList<PageImage> {
+        public String getId(PageImage image) {
+            return IdFactory.getPageImageId(
+                    image.getFileId(), image.getPage(), image.getWidth(), image.getHeight());
+        }
+    }
+
+    private class FakeFileBuilder extends AbstractFileBuilder {
 
-        private MessageDigest mDigest;
         private String mTitle;
-        private long mSize;
         private ByteArrayOutputStream mOutputStream;
 
         public FakeFileBuilder(String title) throws Exception {
-            mDigest = MessageDigest.getInstance("MD5");
             mTitle = title;
-            mSize = 0L;
             mOutputStream = new ByteArrayOutputStream();
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
+        protected void writeContent(byte[] b, int off, int len) throws IOException {
             mOutputStream.write(b, off, len);
-            mDigest.update(b, off, len);
-            mSize += len;
+        }
+
+        @Override
+        public void pause() {
+            // The content is kept in memory, so the upload cannot be resumed.
+            cancel();
         }
 
         @Override
@@ -182,9 +201,10 @@ public class FakeDB implements DB {
             try {
                 mOutputStream.close();
 
-                String id = VomUtil.bytesToHexString(mDigest.digest());
+                ChunkedHash hash = finishHash();
+                String id = hash.getId();
 
-                java.io.File jFile = new java.io.File(mContext.getCacheDir(), id + ".db");
+                java.io.File jFile = getContentFile(id);
                 try (FileOutputStream out = new FileOutputStream(jFile)) {
                     out.write(mOutputStream.toByteArray());
                 } catch (IOException e) {
@@ -195,8 +215,10 @@ public class FakeDB implements DB {
                         id,
                         null,
                         mTitle,
-                        mSize,
-                        Constants.PDF_MIME_TYPE);
+                        getSize(),
+                        Constants.PDF_MIME_TYPE,
+                        hash.getChunkSize(),
+                        hash.getChunkHashes());
 
             } catch (IOException e) {
                 Log.e(TAG, "Could not build the File: " + e.getMessage(), e);
@@ -241,6 +263,23 @@ public class FakeDB implements DB {
         return mDeviceSetList;
     }
 
+    @Override
+    public DBList<Thumbnail> getThumbnailList() {
+        return mThumbnailList;
+    }
+
+    @Override
+    public DBList<PageImage> getPageImageList() {
+        return mPageImageList;
+    }
+
+    @Override
+    public File getFile(String id) {
+        // The content of the files is kept in the cache directory.
+        File file = mFileList.getItemById(id);
+        return file != null && getContentFile(id).exists() ? file : null;
+    }
+
     @Override
     public void addFile(File file) {
         mFileList.addItem(file);
@@ -251,6 +290,29 @@ public class FakeDB implements DB {
         mFileList.removeItemById(id);
     }
 
+    @Override
+    public void addThumbnail(Thumbnail thumbnail) {
+        if (mThumbnailList.getItemById(thumbnail.getFileId()) != null) {
+            mThumbnailList.updateItem(thumbnail);
+        } else {
+            mThumbnailList.addItem(thumbnail);
+        }
+    }
+
+    @Override
+    public void addPageImage(PageImage image) {
+        if (mPageImageList.getItemById(mPageImageList.getId(image)) != null) {
+            mPageImageList.updateItem(image);
+        } else {
+            mPageImageList.addItem(image);
+        }
+    }
+
+    @Override
+    public void deletePageImage(String id) {
+        mPageImageList.removeItemById(id);
+    }
+
     @Override
     public void addDeviceSet(DeviceSet ds) {
         mDeviceSetList.addItem(ds);
@@ -267,10 +329,15 @@ public class FakeDB implements DB {
     }
 
     @Override
-    public FileBuilder getFileBuilder(String title) throws Exception {
+    public FileBuilder getFileBuilder(String title, String uploadId) throws Exception {
         return new FakeFileBuilder(title);
     }
 
+    @Override
+    public void discardUpload(String uploadId) {
+        // Nothing to do.
+    }
+
     @Override
     public InputStream getInputStreamForFile(File file) {
         return getInputStreamForFile(file.getId());
@@ -278,7 +345,7 @@ public class FakeDB implements DB {
 
     @Override
     public InputStream getInputStreamForFile(String fileId) {
-        java.io.File jFile = new java.io.File(mContext.getCacheDir(), fileId + ".db");
+        java.io.File jFile = getContentFile(fileId);
         try {
             return new FileInputStream(jFile);
         } catch (IOException e) {
@@ -288,4 +355,8 @@ public class FakeDB implements DB {
         return null;
     }
 
+    private java.io.File getContentFile(String fileId) {
+        return new java.io.File(mContext.getCacheDir(), fileId + ".db");
+    }
+
 }
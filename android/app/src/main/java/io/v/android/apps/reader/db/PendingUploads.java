@@ -0,0 +1,174 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.db;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.common.io.BaseEncoding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the progress of the file uploads which did not complete, so that sharing the same
+ * content again resumes the upload instead of writing the whole content again.
+ *
+ * The progress of each upload is stored in the shared preferences under its upload id. Only the
+ * most recent uploads are kept, and the blobs of the older ones are handed back to be deleted.
+ * This class is thread-safe.
+ */
+class PendingUploads {
+
+    private static final String TAG = PendingUploads.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "pending_uploads";
+    private static final String SEPARATOR = ":";
+    private static final int MAX_UPLOADS = 4;
+
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+    private static final int HASH_LENGTH = 64;
+
+    private final SharedPreferences mPreferences;
+
+    /**
+     * The progress of an upload.
+     */
+    static class Upload {
+        private final String mRef;
+        private final long mOffset;
+        private final long mTime;
+        private final List<byte[]> mChunkHashes;
+
+        /**
+         * @param ref         the blob the content is written to.
+         * @param offset      the number of bytes of the content written to the blob.
+         * @param chunkHashes the hashes of the chunks at the start of the content.
+         */
+        Upload(String ref, long offset, List<byte[]> chunkHashes) {
+            this(ref, offset, System.currentTimeMillis(), chunkHashes);
+        }
+
+        Upload(String ref, long offset, long time, List<byte[]> chunkHashes) {
+            mRef = ref;
+            mOffset = offset;
+            mTime = time;
+            mChunkHashes = chunkHashes;
+        }
+
+        String getRef() {
+            return mRef;
+        }
+
+        long getOffset() {
+            return mOffset;
+        }
+
+        long getTime() {
+            return mTime;
+        }
+
+        List<byte[]> getChunkHashes() {
+            return mChunkHashes;
+        }
+
+        String encode() {
+            StringBuilder hashes = new StringBuilder();
+            for (byte[] chunkHash : mChunkHashes) {
+                hashes.append(HEX.encode(chunkHash));
+            }
+
+            // The ref goes last, so that it may contain the separator.
+            return mOffset + SEPARATOR + mTime + SEPARATOR + hashes + SEPARATOR + mRef;
+        }
+
+        /**
+         * Returns the upload given by {@link #encode}, or null if the value is malformed.
+         */
+        static Upload decode(String value) {
+            String[] parts = value.split(SEPARATOR, 4);
+            if (parts.length != 4 || parts[2].length() % HASH_LENGTH != 0) {
+                return null;
+            }
+
+            try {
+                List<byte[]> chunkHashes = new ArrayList<>();
+                for (int i = 0; i < parts[2].length(); i += HASH_LENGTH) {
+                    chunkHashes.add(HEX.decode(parts[2].substring(i, i + HASH_LENGTH)));
+                }
+
+                return new Upload(parts[3], Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+                        chunkHashes);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    PendingUploads(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the progress of the given upload, or null if there is none.
+     */
+    synchronized Upload get(String uploadId) {
+        String value = mPreferences.getString(uploadId, null);
+        if (value == null) {
+            return null;
+        }
+
+        Upload upload = Upload.decode(value);
+        if (upload == null) {
+            Log.w(TAG, "Dropping the malformed progress of the upload " + uploadId);
+            mPreferences.edit().remove(uploadId).apply();
+        }
+
+        return upload;
+    }
+
+    /**
+     * Stores the progress of the given upload, replacing the previous one.
+     *
+     * @return the blobs of the older uploads which are no longer kept, and should be deleted.
+     */
+    synchronized List<String> put(String uploadId, Upload upload) {
+        SharedPreferences.Editor editor = mPreferences.edit();
+        editor.putString(uploadId, upload.encode());
+
+        final Map<String, Upload> uploads = new HashMap<>();
+        for (Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            Upload other = entry.getValue() instanceof String
+                    ? Upload.decode((String) entry.getValue()) : null;
+            if (other != null && !entry.getKey().equals(uploadId)) {
+                uploads.put(entry.getKey(), other);
+            }
+        }
+
+        List<String> ids = new ArrayList<>(uploads.keySet());
+        Collections.sort(ids, (a, b) -> Long.compare(uploads.get(b).mTime, uploads.get(a).mTime));
+
+        List<String> dropped = new ArrayList<>();
+        for (int i = MAX_UPLOADS - 1; i < ids.size(); ++i) {
+            editor.remove(ids.get(i));
+            dropped.add(uploads.get(ids.get(i)).getRef());
+        }
+        editor.apply();
+
+        return dropped;
+    }
+
+    /**
+     * Forgets the given upload, once it is completed or cancelled.
+     */
+    synchronized void remove(String uploadId) {
+        mPreferences.edit().remove(uploadId).apply();
+    }
+
+}
@@ -24,17 +24,20 @@ import org.apache.commons.io.FileUtils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Executors;
 
+import io.v.android.apps.reader.model.ChunkedHash;
 import io.v.android.apps.reader.model.DeviceInfoFactory;
+import io.v.android.apps.reader.model.IdFactory;
 import io.v.android.apps.reader.model.Listener;
 import io.v.android.apps.reader.vdl.Device;
 import io.v.android.apps.reader.vdl.DeviceSet;
 import io.v.android.apps.reader.vdl.File;
+import io.v.android.apps.reader.vdl.PageImage;
+import io.v.android.apps.reader.vdl.Thumbnail;
 import io.v.android.libs.security.BlessingsManager;
 import io.v.android.v23.V;
 import io.v.baku.toolkit.VAndroidContextMixin;
@@ -72,6 +75,7 @@ import io.v.v23.syncbase.nosql.Syncgroup;
 import io.v.v23.syncbase.nosql.Table;
 import io.v.v23.syncbase.nosql.WatchChange;
 import io.v.v23.verror.ExistException;
+import io.v.v23.verror.NoExistException;
 import io.v.v23.verror.VException;
 import io.v.v23.vom.VomUtil;
 
@@ -89,6 +93,8 @@ public class SyncbaseDB implements DB {
     private static final String TABLE_FILES = "files";
     private static final String TABLE_DEVICES = "devices";
     private static final String TABLE_DEVICE_SETS = "deviceSets";
+    private static final String TABLE_THUMBNAILS = "thumbnails";
+    private static final String TABLE_PAGE_IMAGES = "pageImages";
 
     private static final int SYNCGROUP_JOIN_DELAY = 5000;
 
@@ -98,12 +104,14 @@ public class SyncbaseDB implements DB {
     private SyncbaseHierarchy mLocalSB;
 
     private SettableFuture<Void> mInitialized;
+    private PendingUploads mPendingUploads;
 
     private String mUsername;
     private String mSyncgroupName;
 
     SyncbaseDB(Context context) {
         mContext = context;
+        mPendingUploads = new PendingUploads(context);
     }
 
     @Override
@@ -268,7 +276,9 @@ public class SyncbaseDB implements DB {
         List<TableRow> prefixes = ImmutableList.of(
                 new TableRow(TABLE_FILES, ""),
                 new TableRow(TABLE_DEVICES, ""),
-                new TableRow(TABLE_DEVICE_SETS, "")
+                new TableRow(TABLE_DEVICE_SETS, ""),
+                new TableRow(TABLE_THUMBNAILS, ""),
+                new TableRow(TABLE_PAGE_IMAGES, "")
         );
 
         List<String> mountTables = ImmutableList.of(
@@ -399,6 +409,26 @@ public class SyncbaseDB implements DB {
                     "\"%s\" table already exists at %s", result.deviceSets.name(), debugName));
         }
 
+        result.thumbnails = result.db.getTable(TABLE_THUMBNAILS);
+        if (!sync(result.thumbnails.exists(mVContext))) {
+            sync(result.thumbnails.create(mVContext, mPermissions));
+            Log.i(TAG, String.format(
+                    "\"%s\" table is created at %s", result.thumbnails.name(), debugName));
+        } else {
+            Log.i(TAG, String.format(
+                    "\"%s\" table already exists at %s", result.thumbnails.name(), debugName));
+        }
+
+        result.pageImages = result.db.getTable(TABLE_PAGE_IMAGES);
+        if (!sync(result.pageImages.exists(mVContext))) {
+            sync(result.pageImages.create(mVContext, mPermissions));
+            Log.i(TAG, String.format(
+                    "\"%s\" table is created at %s", result.pageImages.name(), debugName));
+        } else {
+            Log.i(TAG, String.format(
+                    "\"%s\" table already exists at %s", result.pageImages.name(), debugName));
+        }
+
         return result;
     }
 
@@ -447,6 +477,37 @@ public class SyncbaseDB implements DB {
         return new SyncbaseDeviceSetList(TABLE_DEVICE_SETS, DeviceSet.class);
     }
 
+    @Override
+    public DBList<Thumbnail> getThumbnailList() {
+        if (!isInitialized()) {
+            return new EmptyList<>();
+        }
+
+        return new SyncbaseThumbnailList(TABLE_THUMBNAILS, Thumbnail.class);
+    }
+
+    @Override
+    public DBList<PageImage> getPageImageList() {
+        if (!isInitialized()) {
+            return new EmptyList<>();
+        }
+
+        return new SyncbasePageImageList(TABLE_PAGE_IMAGES, PageImage.class);
+    }
+
+    @Override
+    public File getFile(String id) throws VException {
+        try {
+            File file = (File) sync(mLocalSB.files.get(mVContext, id, File.class));
+            return file != null && file.getRef() != null ? file : null;
+        } catch (NoExistException e) {
+            return null;
+        } catch (VException e) {
+            Log.e(TAG, "Could not look up the file " + id + ": " + e.getMessage());
+            throw e;
+        }
+    }
+
     @Override
     public void addFile(File file) {
         try {
@@ -465,6 +526,37 @@ public class SyncbaseDB implements DB {
         }
     }
 
+    @Override
+    public void addThumbnail(Thumbnail thumbnail) {
+        try {
+            sync(mLocalSB.thumbnails.put(
+                    mVContext, thumbnail.getFileId(), thumbnail, Thumbnail.class));
+        } catch (VException e) {
+            handleError("Failed to add the thumbnail for file " + thumbnail.getFileId() + ": "
+                    + e.getMessage());
+        }
+    }
+
+    @Override
+    public void addPageImage(PageImage image) {
+        String id = IdFactory.getPageImageId(
+                image.getFileId(), image.getPage(), image.getWidth(), image.getHeight());
+        try {
+            sync(mLocalSB.pageImages.put(mVContext, id, image, PageImage.class));
+        } catch (VException e) {
+            handleError("Failed to add the page image " + id + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void deletePageImage(String id) {
+        try {
+            sync(mLocalSB.pageImages.delete(mVContext, id));
+        } catch (VException e) {
+            handleError("Failed to delete the page image " + id + ": " + e.getMessage());
+        }
+    }
+
     @Override
     public void addDeviceSet(DeviceSet ds) {
         try {
@@ -493,8 +585,48 @@ public class SyncbaseDB implements DB {
     }
 
     @Override
-    public FileBuilder getFileBuilder(String title) throws Exception {
-        return new SyncbaseFileBuilder(title);
+    public FileBuilder getFileBuilder(String title, String uploadId) throws Exception {
+        PendingUploads.Upload upload = uploadId != null ? mPendingUploads.get(uploadId) : null;
+        if (upload != null) {
+            try {
+                BlobWriter writer = sync(mLocalSB.db.writeBlob(
+                        mVContext, new BlobRef(upload.getRef())));
+                // The blob may hold more than the saved offset, if the writing was interrupted
+                // after the progress was last saved.
+                long size = sync(writer.size(mVContext));
+                Log.i(TAG, "Resuming the upload " + uploadId + " at " + size + " bytes (saved "
+                        + upload.getOffset() + ")");
+                return new SyncbaseFileBuilder(
+                        title, uploadId, writer, size, upload.getChunkHashes());
+            } catch (VException e) {
+                Log.w(TAG, "Could not resume the upload " + uploadId + ": " + e.getMessage());
+                mPendingUploads.remove(uploadId);
+            }
+        }
+
+        BlobWriter writer = sync(mLocalSB.db.writeBlob(mVContext, null));
+        return new SyncbaseFileBuilder(title, uploadId, writer, 0L, null);
+    }
+
+    @Override
+    public void discardUpload(String uploadId) {
+        PendingUploads.Upload upload = mPendingUploads.get(uploadId);
+        if (upload == null) {
+            return;
+        }
+
+        Log.i(TAG, "Discarding the upload " + uploadId);
+        mPendingUploads.remove(uploadId);
+        deleteBlob(upload.getRef());
+    }
+
+    private void deleteBlob(String ref) {
+        try {
+            BlobWriter writer = sync(mLocalSB.db.writeBlob(mVContext, new BlobRef(ref)));
+            sync(writer.delete(mVContext));
+        } catch (VException e) {
+            Log.w(TAG, "Could not delete the blob " + ref + ": " + e.getMessage());
+        }
     }
 
     @Override
@@ -519,7 +651,10 @@ public class SyncbaseDB implements DB {
         try {
             File file = (File) sync(mLocalSB.files.get(mVContext, fileId, File.class));
             return getInputStreamForFile(file);
+        } catch (NoExistException e) {
+            return null;
         } catch (VException e) {
+            Log.e(TAG, "Could not look up the file " + fileId + ": " + e.getMessage());
             return null;
         }
     }
@@ -591,6 +726,31 @@ public class SyncbaseDB implements DB {
         }
     }
 
+    private class SyncbaseThumbnailList extends SyncbaseDBList<Thumbnail> {
+
+        public SyncbaseThumbnailList(String tableName, Class clazz) {
+            super(tableName, clazz);
+        }
+
+        @Override
+        protected String getId(Thumbnail thumbnail) {
+            return thumbnail.getFileId();
+        }
+    }
+
+    private class SyncbasePageImageList extends SyncbaseDBList<PageImage> {
+
+        public SyncbasePageImageList(String tableName, Class clazz) {
+            super(tableName, clazz);
+        }
+
+        @Override
+        protected String getId(PageImage image) {
+            return IdFactory.getPageImageId(
+                    image.getFileId(), image.getPage(), image.getWidth(), image.getHeight());
+        }
+    }
+
     private abstract class SyncbaseDBList<E> implements DBList<E> {
 
         private final String TAG;
@@ -809,34 +969,83 @@ public class SyncbaseDB implements DB {
         public Table files;
         public Table devices;
         public Table deviceSets;
+        public Table thumbnails;
+        public Table pageImages;
     }
 
-    private class SyncbaseFileBuilder implements DB.FileBuilder {
+    private class SyncbaseFileBuilder extends AbstractFileBuilder {
+
+        // How often the progress is saved, so that an interrupted upload can be resumed.
+        private static final long SAVE_INTERVAL = 8L * ChunkedHash.CHUNK_SIZE;
 
-        private MessageDigest mDigest;
         private String mTitle;
-        private long mSize;
+        private String mUploadId;
         private BlobWriter mBlobWriter;
         private OutputStream mOutputStream;
-
-        public SyncbaseFileBuilder(String title) throws Exception {
-            mDigest = MessageDigest.getInstance("MD5");
+        private long mOffset;
+        private long mSavedOffset;
+
+        /**
+         * @param uploadId    the id under which the progress is saved, or null.
+         * @param blobWriter  the blob to write the content to.
+         * @param storedBytes the number of bytes of the content already in the blob.
+         * @param chunkHashes the hashes of the chunks at the start of the content, or null.
+         */
+        public SyncbaseFileBuilder(String title, String uploadId, BlobWriter blobWriter,
+                                   long storedBytes, List<byte[]> chunkHashes) throws Exception {
+            super(storedBytes, chunkHashes);
             mTitle = title;
-            mSize = 0L;
-
-            mBlobWriter = sync(mLocalSB.db.writeBlob(mVContext, null));
+            mUploadId = uploadId;
+            mBlobWriter = blobWriter;
             mOutputStream = mBlobWriter.stream(mVContext);
+            mOffset = storedBytes;
+            mSavedOffset = storedBytes;
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
+        protected void writeContent(byte[] b, int off, int len) throws IOException {
             mOutputStream.write(b, off, len);
-            mDigest.update(b, off, len);
-            mSize += len;
+            mOffset += len;
+
+            if (mUploadId != null && mOffset - mSavedOffset >= SAVE_INTERVAL) {
+                saveProgress();
+            }
+        }
+
+        private void saveProgress() throws IOException {
+            // Make sure the blob holds at least the saved offset.
+            mOutputStream.flush();
+
+            PendingUploads.Upload upload = new PendingUploads.Upload(
+                    mBlobWriter.getRef().getValue(), mOffset, getHashedChunks());
+            for (String ref : mPendingUploads.put(mUploadId, upload)) {
+                deleteBlob(ref);
+            }
+            mSavedOffset = mOffset;
+        }
+
+        @Override
+        public void pause() {
+            if (mUploadId == null) {
+                cancel();
+                return;
+            }
+
+            try {
+                saveProgress();
+                mOutputStream.close();
+                Log.i(TAG, "Paused the upload " + mUploadId + " at " + mOffset + " bytes");
+            } catch (IOException e) {
+                Log.e(TAG, "Could not pause the writing: " + e.getMessage(), e);
+            }
         }
 
         @Override
         public void cancel() {
+            if (mUploadId != null) {
+                mPendingUploads.remove(mUploadId);
+            }
+
             try {
                 mOutputStream.close();
                 mBlobWriter.delete(mVContext);
@@ -851,20 +1060,35 @@ public class SyncbaseDB implements DB {
                 Log.i(TAG, "build() method called.");
                 mOutputStream.close();
                 Log.i(TAG, "after mOutputStream.close()");
+
+                if (mOffset != getSize()) {
+                    // The stored part does not belong to this content.
+                    Log.e(TAG, "The blob holds " + mOffset + " bytes of " + getSize());
+                    cancel();
+                    return null;
+                }
+
                 sync(mBlobWriter.commit(mVContext));
                 Log.i(TAG, "after commit.");
 
-                String id = VomUtil.bytesToHexString(mDigest.digest());
+                ChunkedHash hash = finishHash();
+                String id = hash.getId();
                 Log.i(TAG, "after digest.");
                 BlobRef ref = mBlobWriter.getRef();
                 Log.i(TAG, "after getRef().");
 
+                if (mUploadId != null) {
+                    mPendingUploads.remove(mUploadId);
+                }
+
                 return new File(
                         id,
                         ref,
                         mTitle,
-                        mSize,
-                        io.v.android.apps.reader.Constants.PDF_MIME_TYPE);
+                        getSize(),
+                        io.v.android.apps.reader.Constants.PDF_MIME_TYPE,
+                        hash.getChunkSize(),
+                        hash.getChunkHashes());
 
             } catch (IOException | VException e) {
                 Log.e(TAG, "Could not build the File: " + e.getMessage(), e);
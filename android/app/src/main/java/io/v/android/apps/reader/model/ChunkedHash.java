@@ -0,0 +1,401 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.model;
+
+import android.util.Log;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.v.v23.vom.VomUtil;
+
+/**
+ * Content hash of a file, computed over fixed-size chunks so that it can be computed and verified
+ * in parallel.
+ *
+ * Each chunk is hashed separately, and the hash of the file is the hash of the chunk hashes. The
+ * file ids are the hex strings of these hashes. The files added by the earlier versions of this
+ * app are identified by the MD5 of their whole content instead, and are verified sequentially.
+ */
+public final class ChunkedHash {
+
+    private static final String TAG = ChunkedHash.class.getSimpleName();
+
+    /**
+     * The size of the chunks hashed for the files added by this version.
+     */
+    public static final int CHUNK_SIZE = 0x100000;   // 1M
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final String LEGACY_ALGORITHM = "MD5";
+    private static final int LEGACY_ID_LENGTH = 32;
+    private static final int LEGACY_BUFFER_SIZE = 0x10000;
+
+    // Prefixes which keep the hashes of the chunks and of the whole file apart.
+    private static final byte CHUNK_PREFIX = 0;
+    private static final byte ROOT_PREFIX = 1;
+
+    private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+    private static volatile ExecutorService executor;
+
+    private final int mChunkSize;
+    private final List<byte[]> mChunkHashes;
+    private final byte[] mHash;
+
+    private ChunkedHash(int chunkSize, List<byte[]> chunkHashes) {
+        mChunkSize = chunkSize;
+        mChunkHashes = Collections.unmodifiableList(chunkHashes);
+        mHash = combine(chunkHashes);
+    }
+
+    /**
+     * Returns the file id given by this hash.
+     */
+    public String getId() {
+        return HEX.encode(mHash);
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public List<byte[]> getChunkHashes() {
+        return mChunkHashes;
+    }
+
+    /**
+     * Returns whether the given file id is the MD5 of the whole content, as given by the earlier
+     * versions of this app.
+     */
+    public static boolean isLegacyId(String id) {
+        return id.length() == LEGACY_ID_LENGTH;
+    }
+
+    /**
+     * Computes the chunk hashes in the background as the content is written, with a chunk being
+     * hashed on each core. The number of chunks in flight is bounded, so the memory use does not
+     * depend on the size of the file.
+     */
+    public static class Hasher {
+        private final int mChunkSize;
+        private final ExecutorService mExecutor;
+        private final BlockingQueue<byte[]> mFreeBuffers;
+        private final int mMaxBuffers;
+        private final List<Future<byte[]>> mChunkHashes;
+
+        private int mBufferCount;
+        private byte[] mBuffer;
+        private int mBufferLength;
+
+        public Hasher() {
+            this(null);
+        }
+
+        /**
+         * Creates a hasher which resumes after the given chunks, as returned by
+         * {@link #getHashedChunks} when the content was hashed before.
+         *
+         * @param chunkHashes the hashes of the chunks at the start of the content, or null.
+         */
+        public Hasher(List<byte[]> chunkHashes) {
+            mChunkSize = CHUNK_SIZE;
+            mExecutor = getExecutor();
+            mMaxBuffers = Runtime.getRuntime().availableProcessors() + 1;
+            mFreeBuffers = new ArrayBlockingQueue<>(mMaxBuffers);
+            mChunkHashes = new ArrayList<>();
+
+            if (chunkHashes != null) {
+                for (byte[] chunkHash : chunkHashes) {
+                    mChunkHashes.add(Futures.immediateFuture(chunkHash));
+                }
+            }
+        }
+
+        /**
+         * Adds the given bytes to the content.
+         *
+         * @throws InterruptedIOException if interrupted while waiting for a free buffer.
+         */
+        public void update(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (mBuffer == null) {
+                    mBuffer = takeBuffer();
+                    mBufferLength = 0;
+                }
+
+                int n = Math.min(len, mChunkSize - mBufferLength);
+                System.arraycopy(b, off, mBuffer, mBufferLength, n);
+                mBufferLength += n;
+                off += n;
+                len -= n;
+
+                if (mBufferLength == mChunkSize) {
+                    submitBuffer();
+                }
+            }
+        }
+
+        /**
+         * Returns the hashes of the chunks at the start of the content which are already hashed,
+         * without waiting for the rest.
+         */
+        public List<byte[]> getHashedChunks() {
+            List<byte[]> result = new ArrayList<>();
+            for (Future<byte[]> future : mChunkHashes) {
+                if (!future.isDone()) {
+                    break;
+                }
+
+                try {
+                    result.add(future.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    break;
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Waits for all the chunks to be hashed, and returns the hash of the whole content.
+         */
+        public ChunkedHash finish() throws IOException {
+            if (mBuffer != null && mBufferLength > 0) {
+                submitBuffer();
+            }
+
+            return new ChunkedHash(mChunkSize, getAll(mChunkHashes));
+        }
+
+        private byte[] takeBuffer() throws IOException {
+            byte[] buffer = mFreeBuffers.poll();
+            if (buffer != null) {
+                return buffer;
+            }
+
+            if (mBufferCount < mMaxBuffers) {
+                ++mBufferCount;
+                return new byte[mChunkSize];
+            }
+
+            try {
+                return mFreeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Hashing the file was interrupted");
+            }
+        }
+
+        private void submitBuffer() {
+            final byte[] buffer = mBuffer;
+            final int length = mBufferLength;
+            mBuffer = null;
+
+            mChunkHashes.add(mExecutor.submit(() -> {
+                try {
+                    return hashChunk(buffer, length);
+                } finally {
+                    mFreeBuffers.offer(buffer);
+                }
+            }));
+        }
+    }
+
+    /**
+     * A hasher which also computes the legacy id of the content in the same pass, so that the
+     * content shared by the earlier versions of this app can be found.
+     */
+    public static class LegacyHasher extends Hasher {
+        private final MessageDigest mLegacyDigest;
+
+        public LegacyHasher() {
+            mLegacyDigest = newDigest(LEGACY_ALGORITHM);
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) throws IOException {
+            super.update(b, off, len);
+            mLegacyDigest.update(b, off, len);
+        }
+
+        /**
+         * Returns the legacy id of the content written so far, and resets it.
+         */
+        public String finishLegacyId() {
+            return toLegacyId(mLegacyDigest.digest());
+        }
+    }
+
+    /**
+     * Verifies the given local copy of a file against its id, reading and hashing the chunks in
+     * parallel. The chunk hashes recorded for the file, if any, tell which chunks are corrupt.
+     *
+     * @param file        the local copy of the file.
+     * @param id          the id of the file.
+     * @param chunkHashes the chunk hashes recorded for the file, or null.
+     * @return            whether the copy matches the id.
+     */
+    public static boolean verify(File file, String id, List<byte[]> chunkHashes)
+            throws IOException {
+        if (isLegacyId(id)) {
+            return verifyLegacy(file, id);
+        }
+
+        List<byte[]> actual = hashChunks(file, CHUNK_SIZE, getExecutor());
+
+        if (chunkHashes != null) {
+            for (int i = 0; i < Math.min(actual.size(), chunkHashes.size()); ++i) {
+                if (!Arrays.equals(actual.get(i), chunkHashes.get(i))) {
+                    Log.w(TAG, "Chunk " + i + " of file " + id + " is corrupt");
+                }
+            }
+        }
+
+        return HEX.encode(combine(actual)).equals(id);
+    }
+
+    /**
+     * Hashes the chunks of the given file in parallel, each one read at its own position.
+     */
+    static List<byte[]> hashChunks(File file, final int chunkSize, ExecutorService executor)
+            throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            List<Future<byte[]>> futures = new ArrayList<>();
+            for (long position = 0L; position < size; position += chunkSize) {
+                final long start = position;
+                final int length = (int) Math.min(chunkSize, size - position);
+                futures.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        ByteBuffer buffer = ByteBuffer.allocate(length);
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, start + buffer.position()) < 0) {
+                                throw new IOException("Unexpected end of file");
+                            }
+                        }
+                        return hashChunk(buffer.array(), length);
+                    }
+                }));
+            }
+
+            return getAll(futures);
+        }
+    }
+
+    private static boolean verifyLegacy(File file, String id) throws IOException {
+        MessageDigest digest = newDigest(LEGACY_ALGORITHM);
+        byte[] buffer = new byte[LEGACY_BUFFER_SIZE];
+
+        try (InputStream in = new FileInputStream(file)) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+            }
+        }
+
+        return toLegacyId(digest.digest()).equalsIgnoreCase(id);
+    }
+
+    /**
+     * Encodes the given MD5 the same way as the ids given by the earlier versions of this app.
+     */
+    private static String toLegacyId(byte[] hash) {
+        return VomUtil.bytesToHexString(hash);
+    }
+
+    static byte[] hashChunk(byte[] chunk, int length) {
+        MessageDigest digest = newDigest(ALGORITHM);
+        digest.update(CHUNK_PREFIX);
+        digest.update(chunk, 0, length);
+        return digest.digest();
+    }
+
+    static byte[] combine(List<byte[]> chunkHashes) {
+        MessageDigest digest = newDigest(ALGORITHM);
+        digest.update(ROOT_PREFIX);
+        for (byte[] chunkHash : chunkHashes) {
+            digest.update(chunkHash);
+        }
+        return digest.digest();
+    }
+
+    private static List<byte[]> getAll(List<Future<byte[]>> futures) throws IOException {
+        List<byte[]> result = new ArrayList<>(futures.size());
+        try {
+            for (Future<byte[]> future : futures) {
+                result.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Hashing the file was interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not hash the file", e.getCause());
+        } finally {
+            for (Future<byte[]> future : futures) {
+                future.cancel(false);
+            }
+        }
+
+        return result;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the threads shared by all the hashing, one for each core.
+     */
+    private static ExecutorService getExecutor() {
+        ExecutorService result = executor;
+        if (result == null) {
+            synchronized (ChunkedHash.class) {
+                result = executor;
+                if (result == null) {
+                    executor = result = Executors.newFixedThreadPool(
+                            Runtime.getRuntime().availableProcessors(),
+                            new ThreadFactoryBuilder()
+                                    .setNameFormat("ChunkedHash-%d")
+                                    .setDaemon(true)
+                                    .build());
+                }
+            }
+        }
+
+        return result;
+    }
+
+}
@@ -25,6 +25,13 @@ public class IdFactory {
         return UUID.randomUUID().toString();
     }
 
+    /**
+     * Gets the id of the image of a page rendered at the given size.
+     */
+    public static String getPageImageId(String fileId, int page, int width, int height) {
+        return String.format("%s_%d_%dx%d", fileId, page, width, height);
+    }
+
     private static void handleException(Exception e) {
         Log.e(TAG, e.getMessage(), e);
     }
@@ -0,0 +1,160 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of bitmaps which can be reused for rendering pages, to avoid allocating a new screen-sized
+ * bitmap on every page turn.
+ *
+ * Bitmaps are bucketed by their size and config, and a bitmap is only handed out for a request of
+ * exactly the same size and config. The total size of the pooled bitmaps is bounded by a byte
+ * budget; bitmaps returned beyond that are left to the garbage collector. This class is
+ * thread-safe.
+ */
+public class BitmapPool {
+
+    /**
+     * Use 1/16 of the available heap by default.
+     */
+    private static final int DEFAULT_MAX_BYTES = (int) Math.min(
+            Runtime.getRuntime().maxMemory() / 16, Integer.MAX_VALUE);
+
+    private static volatile BitmapPool instance;
+
+    private final Map<String, Deque<Bitmap>> mBuckets;
+    private int mMaxBytes;
+    private int mSize;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Singleton accessor of the BitmapPool class, which is shared by all the renderers.
+     */
+    public static BitmapPool getInstance() {
+        BitmapPool result = instance;
+        if (result == null) {
+            synchronized (BitmapPool.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new BitmapPool(DEFAULT_MAX_BYTES);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxBytes the maximum total size of the pooled bitmaps in bytes.
+     */
+    public BitmapPool(int maxBytes) {
+        mBuckets = new HashMap<>();
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cleared bitmap with the given size and config, reusing a pooled one if possible.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = null;
+
+        synchronized (this) {
+            Deque<Bitmap> bucket = mBuckets.get(getBucketKey(width, height, config));
+            if (bucket != null) {
+                bitmap = bucket.poll();
+            }
+
+            if (bitmap != null) {
+                mSize -= bitmap.getAllocationByteCount();
+                ++mHitCount;
+            } else {
+                ++mMissCount;
+            }
+        }
+
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Returns the given bitmap to the pool. The caller must not use the bitmap afterwards.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        int bytes = bitmap.getAllocationByteCount();
+
+        synchronized (this) {
+            if (mSize + bytes > mMaxBytes) {
+                return;
+            }
+
+            String key = getBucketKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+            Deque<Bitmap> bucket = mBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                mBuckets.put(key, bucket);
+            }
+
+            bucket.push(bitmap);
+            mSize += bytes;
+        }
+    }
+
+    /**
+     * Changes the byte budget of this pool, dropping pooled bitmaps if needed.
+     */
+    public synchronized void resize(int maxBytes) {
+        mMaxBytes = maxBytes;
+
+        for (Deque<Bitmap> bucket : mBuckets.values()) {
+            while (mSize > mMaxBytes && !bucket.isEmpty()) {
+                mSize -= bucket.poll().getAllocationByteCount();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mBuckets.clear();
+        mSize = 0;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized int maxSize() {
+        return mMaxBytes;
+    }
+
+    public synchronized int hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int missCount() {
+        return mMissCount;
+    }
+
+    private static String getBucketKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+}
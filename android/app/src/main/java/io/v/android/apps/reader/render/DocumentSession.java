@@ -0,0 +1,60 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import java.io.File;
+
+/**
+ * An open PDF document: its materialized file, and the worker rendering its pages.
+ *
+ * Sessions are shared through {@link DocumentSessions}, which keeps them open while they are in
+ * use and for a while after that.
+ */
+public class DocumentSession {
+
+    private final String mFileId;
+    private final File mFile;
+    private final PageRenderWorker mWorker;
+    private final int mPageCount;
+
+    // Only accessed on the main thread, by DocumentSessions.
+    int mRefCount;
+    Runnable mCloseTask;
+
+    DocumentSession(String fileId, File file, RendererPool renderers, PageRenderWorker worker) {
+        mFileId = fileId;
+        mFile = file;
+        mWorker = worker;
+        mPageCount = renderers.getPageCount();
+    }
+
+    public String getFileId() {
+        return mFileId;
+    }
+
+    /**
+     * Returns the local copy of the PDF file.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Returns the worker rendering the pages of this document. The worker is shared by all the
+     * users of this session, so each user should use its own render targets.
+     */
+    public PageRenderWorker getWorker() {
+        return mWorker;
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    void close() {
+        mWorker.shutdown();
+    }
+
+}
@@ -0,0 +1,233 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.v.android.apps.reader.R;
+import io.v.android.apps.reader.db.DB;
+import io.v.android.apps.reader.db.DocumentCache;
+
+/**
+ * Process-wide registry of the open {@link DocumentSession}s, keyed by the file ids.
+ *
+ * Opening a document means materializing its file and opening its renderers, which is too costly
+ * to repeat every time an activity is restarted. The sessions are reference counted, and a session
+ * which is no longer used is kept open for a grace period before being closed. An activity which
+ * comes back within the grace period, e.g. after an orientation change or an app switch, gets the
+ * same session with its renderers and caches still warm.
+ *
+ * A session is opened on a background thread, and handed to the callers once it is open. The
+ * concurrent requests for the same file share the opening. All the methods must be called on the
+ * main thread, as are the callbacks.
+ */
+public class DocumentSessions {
+
+    private static final String TAG = DocumentSessions.class.getSimpleName();
+
+    private static volatile DocumentSessions instance;
+
+    /**
+     * Callback interface for the sessions being acquired. Always called on the main thread.
+     */
+    public interface AcquireCallback {
+        /**
+         * Called with the acquired session, which must be given back with {@link #release}.
+         */
+        void onAcquired(DocumentSession session);
+
+        /**
+         * Called when the document could not be opened.
+         */
+        void onFailed(IOException e);
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final ExecutorService mOpenExecutor;
+    private final Map<String, DocumentSession> mSessions;
+    // The callbacks waiting for the sessions being opened, by the file ids.
+    private final Map<String, List<AcquireCallback>> mPending;
+    private long mGracePeriodMillis;
+
+    /**
+     * Singleton accessor of the DocumentSessions class. The grace period is given by the
+     * {@code document_session_grace_seconds} resource.
+     */
+    public static DocumentSessions getInstance(Context context) {
+        DocumentSessions result = instance;
+        if (result == null) {
+            synchronized (DocumentSessions.class) {
+                result = instance;
+                if (result == null) {
+                    long gracePeriodMillis = context.getResources().getInteger(
+                            R.integer.document_session_grace_seconds) * 1000L;
+                    instance = result = new DocumentSessions(
+                            context.getApplicationContext(), gracePeriodMillis);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private DocumentSessions(Context context, long gracePeriodMillis) {
+        mContext = context;
+        mHandler = new Handler(Looper.getMainLooper());
+        mOpenExecutor = Executors.newSingleThreadExecutor();
+        mSessions = new HashMap<>();
+        mPending = new HashMap<>();
+        mGracePeriodMillis = gracePeriodMillis;
+    }
+
+    /**
+     * Acquires the session of the given file, opening it in the background if needed. The callback
+     * is called right away if the session is already open. Each acquired session must be given
+     * back with {@link #release}.
+     */
+    public void acquire(final String fileId, AcquireCallback callback) {
+        DocumentSession session = mSessions.get(fileId);
+        if (session != null) {
+            if (session.mCloseTask != null) {
+                Log.i(TAG, "Reusing the session of " + fileId);
+                mHandler.removeCallbacks(session.mCloseTask);
+                session.mCloseTask = null;
+            }
+
+            // The render profile may have changed since the session was opened.
+            session.getWorker().setBitmapConfig(RenderProfile.get(mContext).getBitmapConfig());
+
+            ++session.mRefCount;
+            callback.onAcquired(session);
+            return;
+        }
+
+        List<AcquireCallback> pending = mPending.get(fileId);
+        if (pending != null) {
+            pending.add(callback);
+            return;
+        }
+
+        pending = new ArrayList<>();
+        pending.add(callback);
+        mPending.put(fileId, pending);
+
+        mOpenExecutor.execute(() -> {
+            try {
+                DocumentSession opened = open(fileId);
+                mHandler.post(() -> onOpened(fileId, opened));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open " + fileId + ": " + e.getMessage(), e);
+                mHandler.post(() -> onFailed(fileId, e));
+            }
+        });
+    }
+
+    /**
+     * Withdraws a callback given to {@link #acquire} whose session is still being opened. The
+     * session stays open for the grace period if nobody else is waiting for it.
+     */
+    public void cancel(AcquireCallback callback) {
+        for (List<AcquireCallback> pending : mPending.values()) {
+            pending.remove(callback);
+        }
+    }
+
+    /**
+     * Gives back a session given by {@link #acquire}. The session is closed once the grace
+     * period has passed without it being acquired again.
+     */
+    public void release(DocumentSession session) {
+        if (--session.mRefCount > 0) {
+            return;
+        }
+
+        session.mCloseTask = () -> close(session);
+        mHandler.postDelayed(session.mCloseTask, mGracePeriodMillis);
+    }
+
+    /**
+     * Changes the grace period of the sessions released from now on.
+     */
+    public void setGracePeriodMillis(long gracePeriodMillis) {
+        mGracePeriodMillis = gracePeriodMillis;
+    }
+
+    /**
+     * Closes all the sessions which are not in use right away, without waiting for the grace
+     * period.
+     */
+    public void closeIdleSessions() {
+        for (DocumentSession session : mSessions.values().toArray(new DocumentSession[0])) {
+            if (session.mCloseTask != null) {
+                mHandler.removeCallbacks(session.mCloseTask);
+                close(session);
+            }
+        }
+    }
+
+    private void onOpened(String fileId, DocumentSession session) {
+        List<AcquireCallback> pending = mPending.remove(fileId);
+        mSessions.put(fileId, session);
+
+        if (pending.isEmpty()) {
+            session.mCloseTask = () -> close(session);
+            mHandler.postDelayed(session.mCloseTask, mGracePeriodMillis);
+            return;
+        }
+
+        session.mRefCount = pending.size();
+        for (AcquireCallback callback : pending) {
+            callback.onAcquired(session);
+        }
+    }
+
+    private void onFailed(String fileId, IOException e) {
+        for (AcquireCallback callback : mPending.remove(fileId)) {
+            callback.onFailed(e);
+        }
+    }
+
+    /**
+     * Materializes the given file and opens its renderers. Called on the background thread.
+     */
+    private DocumentSession open(String fileId) throws IOException {
+        Log.i(TAG, "Opening a session for " + fileId);
+
+        File file = DocumentCache.getInstance(mContext).getFile(DB.Singleton.get(mContext), fileId);
+        RendererPool renderers = new RendererPool(
+                PageRenderers.getFactory(mContext),
+                file,
+                RendererPool.getDefaultSize(mContext));
+        PageRenderWorker worker = new PageRenderWorker(
+                renderers,
+                PageCache.getInstance(),
+                BitmapPool.getInstance(),
+                PageDiskCache.getInstance(mContext));
+        worker.setBitmapConfig(RenderProfile.get(mContext).getBitmapConfig());
+
+        return new DocumentSession(fileId, file, renderers, worker);
+    }
+
+    private void close(DocumentSession session) {
+        Log.i(TAG, "Closing the session of " + session.getFileId());
+        session.mCloseTask = null;
+        mSessions.remove(session.getFileId());
+        session.close();
+    }
+
+}
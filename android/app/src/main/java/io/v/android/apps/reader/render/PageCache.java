@@ -0,0 +1,184 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of the rendered page bitmaps.
+ *
+ * Evicts the least recently used pages when the total size of the cached bitmaps exceeds the byte
+ * budget. Evicted bitmaps are returned to the {@link BitmapPool}, unless they are pinned because
+ * they are still being displayed; those are returned when they are unpinned for the last time.
+ * This class is thread-safe.
+ */
+public class PageCache {
+
+    /**
+     * Use 1/8 of the available heap by default.
+     */
+    private static final int DEFAULT_MAX_BYTES = (int) Math.min(
+            Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+
+    private static volatile PageCache instance;
+
+    private final LruCache<PageKey, Bitmap> mCache;
+    private final BitmapPool mPool;
+
+    // Number of pins of each pinned bitmap, and whether it was removed from the cache meanwhile.
+    private final Map<Bitmap, Integer> mPinCounts;
+    private final Map<Bitmap, Boolean> mRemovedWhilePinned;
+
+    /**
+     * Singleton accessor of the PageCache class, which is shared by all the page views.
+     */
+    public static PageCache getInstance() {
+        PageCache result = instance;
+        if (result == null) {
+            synchronized (PageCache.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new PageCache(DEFAULT_MAX_BYTES, BitmapPool.getInstance());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxBytes the maximum total size of the cached bitmaps in bytes.
+     * @param pool     the pool to which the evicted bitmaps are returned.
+     */
+    public PageCache(int maxBytes, BitmapPool pool) {
+        mPool = pool;
+        mPinCounts = new IdentityHashMap<>();
+        mRemovedWhilePinned = new IdentityHashMap<>();
+
+        mCache = new LruCache<PageKey, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(PageKey key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, PageKey key,
+                                        Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    release(oldValue);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the cached bitmap for the given key, or null if there is none.
+     *
+     * The returned bitmap may be recycled at any time after this call. Use {@link #getAndPin} to
+     * get a bitmap which is going to be displayed.
+     */
+    public Bitmap get(PageKey key) {
+        return mCache.get(key);
+    }
+
+    /**
+     * Returns the cached bitmap for the given key pinned, or null if there is none.
+     */
+    public Bitmap getAndPin(PageKey key) {
+        synchronized (mPinCounts) {
+            Bitmap bitmap = mCache.get(key);
+            if (bitmap != null) {
+                pin(bitmap);
+            }
+
+            return bitmap;
+        }
+    }
+
+    public void put(PageKey key, Bitmap bitmap) {
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * Prevents the given bitmap from being returned to the pool, even if it is evicted.
+     * Each call must be paired with a call to {@link #unpin}.
+     */
+    public void pin(Bitmap bitmap) {
+        synchronized (mPinCounts) {
+            Integer count = mPinCounts.get(bitmap);
+            mPinCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Releases a pin of the given bitmap. If it was the last pin and the bitmap is no longer in the
+     * cache, the bitmap is returned to the pool.
+     */
+    public void unpin(Bitmap bitmap) {
+        synchronized (mPinCounts) {
+            Integer count = mPinCounts.get(bitmap);
+            if (count == null) {
+                return;
+            }
+
+            if (count > 1) {
+                mPinCounts.put(bitmap, count - 1);
+                return;
+            }
+
+            mPinCounts.remove(bitmap);
+            if (mRemovedWhilePinned.remove(bitmap) == null) {
+                return;
+            }
+        }
+
+        mPool.put(bitmap);
+    }
+
+    private void release(Bitmap bitmap) {
+        synchronized (mPinCounts) {
+            if (mPinCounts.containsKey(bitmap)) {
+                mRemovedWhilePinned.put(bitmap, true);
+                return;
+            }
+        }
+
+        mPool.put(bitmap);
+    }
+
+    /**
+     * Changes the byte budget of this cache, evicting entries if needed.
+     */
+    public void resize(int maxBytes) {
+        mCache.resize(maxBytes);
+    }
+
+    public int size() {
+        return mCache.size();
+    }
+
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    public int hitCount() {
+        return mCache.hitCount();
+    }
+
+    public int missCount() {
+        return mCache.missCount();
+    }
+
+    public void clear() {
+        mCache.evictAll();
+    }
+
+}
@@ -0,0 +1,273 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.v.android.apps.reader.R;
+
+/**
+ * Persistent cache of the rendered pages, stored as compressed images under the app cache
+ * directory.
+ *
+ * Since the file ids are content hashes, the cached pages stay valid across sessions and across
+ * device sets that share the same document. The least recently used pages are deleted when the
+ * total size of the cached files exceeds the quota. This class is thread-safe.
+ */
+public class PageDiskCache {
+
+    private static final String TAG = PageDiskCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "pages";
+    private static final String EXTENSION = ".png";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private static volatile PageDiskCache instance;
+
+    private final File mDirectory;
+    private final ExecutorService mWriteExecutor;
+
+    // File names of the cached pages and their sizes, in the order of access.
+    private Map<String, Long> mEntries;
+    private long mMaxBytes;
+    private long mSize;
+
+    /**
+     * Singleton accessor of the PageDiskCache class. The quota is given by the
+     * {@code page_disk_cache_mb} resource.
+     */
+    public static PageDiskCache getInstance(Context context) {
+        PageDiskCache result = instance;
+        if (result == null) {
+            synchronized (PageDiskCache.class) {
+                result = instance;
+                if (result == null) {
+                    long maxBytes = context.getResources().getInteger(R.integer.page_disk_cache_mb)
+                            * 1024L * 1024L;
+                    instance = result = new PageDiskCache(
+                            new File(context.getCacheDir(), DIRECTORY_NAME), maxBytes);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a new disk cache.
+     *
+     * @param directory the directory to store the cached pages in.
+     * @param maxBytes  the maximum total size of the cached files in bytes.
+     */
+    public PageDiskCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mWriteExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Tells if there is a cached page for the given key.
+     */
+    public synchronized boolean contains(PageKey key) {
+        ensureLoaded();
+        return mEntries.containsKey(key.toString() + EXTENSION);
+    }
+
+    /**
+     * Reads the cached page for the given key, decoding it into a bitmap from the given pool.
+     *
+     * @return the cached page, or null if there is none.
+     */
+    public Bitmap get(PageKey key, BitmapPool pool) {
+        String name = key.toString() + EXTENSION;
+        File file = new File(mDirectory, name);
+
+        synchronized (this) {
+            ensureLoaded();
+            if (mEntries.get(name) == null) {
+                return null;
+            }
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            remove(name);
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = pool.get(
+                options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            pool.put(options.inBitmap);
+            remove(name);
+            return null;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Writes the given page to the cache in the background, unless it is already there.
+     *
+     * @param key    the key of the page.
+     * @param bitmap the rendered page, which must not be modified until {@code onDone} is called.
+     * @param onDone called on the background thread once the bitmap is no longer needed.
+     */
+    public void put(PageKey key, Bitmap bitmap, Runnable onDone) {
+        try {
+            mWriteExecutor.execute(() -> {
+                try {
+                    write(key.toString() + EXTENSION, bitmap);
+                } finally {
+                    onDone.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Closed.
+            onDone.run();
+        }
+    }
+
+    /**
+     * Waits for the pending writes, and stops the background thread. The pages put afterwards are
+     * not written. The shared instance is never closed, so this is only for the caches created
+     * separately, e.g. by the benchmarks.
+     */
+    public void close() throws InterruptedException {
+        mWriteExecutor.shutdown();
+        mWriteExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private void write(String name, Bitmap bitmap) {
+        synchronized (this) {
+            ensureLoaded();
+            if (mEntries.containsKey(name)) {
+                return;
+            }
+        }
+
+        // Write to a temporary file first, so that a partially written file is never read.
+        File file = new File(mDirectory, name);
+        File temp = new File(mDirectory, name + TEMP_EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write " + name + ": " + e.getMessage(), e);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Could not rename " + temp);
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            mEntries.put(name, file.length());
+            mSize += file.length();
+            trimToSize();
+        }
+    }
+
+    /**
+     * Changes the quota of this cache, deleting the least recently used pages if needed.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        ensureLoaded();
+        trimToSize();
+    }
+
+    public synchronized long size() {
+        ensureLoaded();
+        return mSize;
+    }
+
+    public synchronized long maxSize() {
+        return mMaxBytes;
+    }
+
+    private synchronized void remove(String name) {
+        Long length = mEntries.remove(name);
+        if (length != null) {
+            mSize -= length;
+        }
+        new File(mDirectory, name).delete();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSize > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    /**
+     * Builds the index of the cached files when first needed, using the last modified times of the
+     * files as their access order.
+     */
+    private void ensureLoaded() {
+        if (mEntries != null) {
+            return;
+        }
+
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        mSize = 0L;
+
+        mDirectory.mkdirs();
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            if (!file.getName().endsWith(EXTENSION)) {
+                // Leftover from an interrupted write.
+                file.delete();
+                continue;
+            }
+
+            mEntries.put(file.getName(), file.length());
+            mSize += file.length();
+        }
+
+        trimToSize();
+    }
+
+}
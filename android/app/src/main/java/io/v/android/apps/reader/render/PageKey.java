@@ -0,0 +1,208 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+/**
+ * Identifies a rendered page bitmap, a tile of a zoomed page rendered by {@link TileRenderer}, or
+ * the region of a page shown on one of the devices of a spread, rendered by {@link Spreads}.
+ *
+ * Since the file ids are content hashes, a key stays valid for as long as the rendering parameters
+ * are the same, regardless of which device set the file was opened from.
+ */
+public final class PageKey {
+
+    private static final int NO_TILE = -1;
+
+    private final String mFileId;
+    private final int mPage;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mZoom;
+    private final int mTileColumn;
+    private final int mTileRow;
+
+    // The region of the bounds to render, in the spread mode. The width is zero otherwise.
+    private final int mRegionLeft;
+    private final int mRegionTop;
+    private final int mRegionWidth;
+    private final int mRegionHeight;
+
+    /**
+     * @param fileId the id of the file.
+     * @param page   the page number. Page number is one-based.
+     * @param width  the width of the bounds that the page is fit into.
+     * @param height the height of the bounds that the page is fit into.
+     * @param zoom   the zoom level, as stored in DeviceMeta.
+     */
+    public PageKey(String fileId, int page, int width, int height, int zoom) {
+        this(fileId, page, width, height, zoom, NO_TILE, NO_TILE, 0, 0, 0, 0);
+    }
+
+    private PageKey(String fileId, int page, int width, int height, int zoom,
+                    int tileColumn, int tileRow,
+                    int regionLeft, int regionTop, int regionWidth, int regionHeight) {
+        mFileId = fileId;
+        mPage = page;
+        mWidth = width;
+        mHeight = height;
+        mZoom = zoom;
+        mTileColumn = tileColumn;
+        mTileRow = tileRow;
+        mRegionLeft = regionLeft;
+        mRegionTop = regionTop;
+        mRegionWidth = regionWidth;
+        mRegionHeight = regionHeight;
+    }
+
+    public String getFileId() {
+        return mFileId;
+    }
+
+    public int getPage() {
+        return mPage;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getZoom() {
+        return mZoom;
+    }
+
+    public boolean isTile() {
+        return mTileColumn != NO_TILE;
+    }
+
+    public int getTileColumn() {
+        return mTileColumn;
+    }
+
+    public int getTileRow() {
+        return mTileRow;
+    }
+
+    public boolean isRegion() {
+        return mRegionWidth > 0;
+    }
+
+    public int getRegionLeft() {
+        return mRegionLeft;
+    }
+
+    public int getRegionTop() {
+        return mRegionTop;
+    }
+
+    public int getRegionWidth() {
+        return mRegionWidth;
+    }
+
+    public int getRegionHeight() {
+        return mRegionHeight;
+    }
+
+    /**
+     * Returns a key for another page of the same file with the same rendering parameters.
+     */
+    public PageKey withPage(int page) {
+        return new PageKey(mFileId, page, mWidth, mHeight, mZoom, mTileColumn, mTileRow,
+                mRegionLeft, mRegionTop, mRegionWidth, mRegionHeight);
+    }
+
+    /**
+     * Returns a key for a tile of this page at the given zoom level.
+     *
+     * @param zoom   the zoom level.
+     * @param column the zero-based column of the tile.
+     * @param row    the zero-based row of the tile.
+     */
+    public PageKey forTile(int zoom, int column, int row) {
+        return new PageKey(mFileId, mPage, mWidth, mHeight, zoom, column, row, 0, 0, 0, 0);
+    }
+
+    /**
+     * Returns a key for the given region of this page, where the bounds of this key stand for the
+     * combined screen of a spread. The region is rendered on a bitmap of its own size.
+     */
+    public PageKey forRegion(int left, int top, int width, int height) {
+        return new PageKey(mFileId, mPage, mWidth, mHeight, mZoom, NO_TILE, NO_TILE,
+                left, top, width, height);
+    }
+
+    /**
+     * Returns a key for the same page or region rendered at a lower resolution, with all the
+     * dimensions divided by the given divisor.
+     */
+    public PageKey scaleDown(int divisor) {
+        if (!isRegion()) {
+            return new PageKey(mFileId, mPage, mWidth / divisor, mHeight / divisor, mZoom,
+                    mTileColumn, mTileRow, 0, 0, 0, 0);
+        }
+
+        return new PageKey(mFileId, mPage, mWidth / divisor, mHeight / divisor, mZoom,
+                mTileColumn, mTileRow,
+                mRegionLeft / divisor, mRegionTop / divisor,
+                Math.max(1, mRegionWidth / divisor), Math.max(1, mRegionHeight / divisor));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PageKey)) {
+            return false;
+        }
+
+        PageKey other = (PageKey) o;
+        return mPage == other.mPage
+                && mWidth == other.mWidth
+                && mHeight == other.mHeight
+                && mZoom == other.mZoom
+                && mTileColumn == other.mTileColumn
+                && mTileRow == other.mTileRow
+                && mRegionLeft == other.mRegionLeft
+                && mRegionTop == other.mRegionTop
+                && mRegionWidth == other.mRegionWidth
+                && mRegionHeight == other.mRegionHeight
+                && mFileId.equals(other.mFileId);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mFileId.hashCode();
+        result = 31 * result + mPage;
+        result = 31 * result + mWidth;
+        result = 31 * result + mHeight;
+        result = 31 * result + mZoom;
+        result = 31 * result + mTileColumn;
+        result = 31 * result + mTileRow;
+        result = 31 * result + mRegionLeft;
+        result = 31 * result + mRegionTop;
+        result = 31 * result + mRegionWidth;
+        result = 31 * result + mRegionHeight;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        String result = String.format("%s_%d_%dx%d_%d", mFileId, mPage, mWidth, mHeight, mZoom);
+        if (isTile()) {
+            result += String.format("_%d-%d", mTileColumn, mTileRow);
+        }
+        if (isRegion()) {
+            result += String.format("_r%d-%d-%dx%d",
+                    mRegionLeft, mRegionTop, mRegionWidth, mRegionHeight);
+        }
+
+        return result;
+    }
+
+}
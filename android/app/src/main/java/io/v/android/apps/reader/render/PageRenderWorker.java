@@ -0,0 +1,677 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+import io.v.android.apps.reader.Utils;
+import io.v.android.apps.reader.render.PageRenderer.Page;
+import io.v.android.apps.reader.render.RenderScheduler.Priority;
+
+/**
+ * Renders PDF pages on background threads and delivers the results on the main thread.
+ *
+ * Rendered pages are kept in the given {@link PageCache}, so that the requests for a page which is
+ * already rendered are served without touching the renderer. The bitmaps are borrowed from the
+ * given {@link BitmapPool}, and go back to it when they are evicted from the cache. The full pages
+ * are also written to the given {@link PageDiskCache}, and read back from there before falling
+ * back to the renderer.
+ *
+ * Every request is associated with a target (typically the view that displays the page). A newer
+ * request for the same target supersedes the older one: the older one is dropped if it has not
+ * started yet, and its result is never delivered if it has. The tiles of a zoomed page are
+ * requested as a batch, which likewise supersedes the previous requests of the same target.
+ *
+ * When progressive rendering is enabled, a page which is not in the cache is first rendered at
+ * 1/{@value #PREVIEW_SCALE} of the resolution and delivered as a preview, and then delivered again
+ * at the full resolution. The preview is much cheaper to render, so something is displayed quickly
+ * even when the full render is slow.
+ *
+ * Pages can also be prefetched into the cache. Prefetching is best-effort: a render request or a
+ * newer batch of prefetch requests cancels the pending prefetches, so that they never delay the
+ * page the user is waiting for.
+ *
+ * A {@link PageSource} can supply the full pages instead of the renderer, e.g. the pages rendered
+ * by a peer device. A displayed page is then taken from the source if it arrives in time, and a
+ * prefetched page only if it has already arrived. The other pages are rendered locally.
+ *
+ * Independent requests are rendered concurrently, with one thread for each renderer in the given
+ * {@link RendererPool}, which must have at least two renderers. The requests are scheduled by a
+ * {@link RenderScheduler}: pages first, then tiles, then prefetches, then thumbnails. The pool must
+ * not be used by anyone else, because this worker closes it on {@link #shutdown}.
+ */
+public class PageRenderWorker {
+
+    private static final String TAG = PageRenderWorker.class.getSimpleName();
+
+    /**
+     * The ratio between the sizes of the full page and its preview.
+     */
+    public static final int PREVIEW_SCALE = 4;
+
+    // The number of pages whose sizes are read while holding a renderer.
+    private static final int PAGE_SIZES_BATCH = 32;
+
+    /**
+     * Callback interface for receiving the rendered pages. Always called on the main thread.
+     *
+     * The delivered bitmap is pinned in the cache on behalf of the receiver, which must call
+     * {@link PageCache#unpin} once the bitmap is no longer displayed. With progressive rendering,
+     * the callback is first called with the key of the preview, which differs from the requested
+     * key.
+     */
+    public interface Callback {
+        void onPageRendered(PageKey key, Bitmap bitmap);
+    }
+
+    /**
+     * Callback interface for receiving the sizes of all the pages, in points. Always called on the
+     * main thread. The arrays are indexed by zero-based page indices, and must not be modified.
+     */
+    public interface PageSizesCallback {
+        void onPageSizesLoaded(int[] widths, int[] heights);
+    }
+
+    /**
+     * Source of the full pages rendered elsewhere. The methods are called on the worker threads.
+     */
+    public interface PageSource {
+        /**
+         * Returns whether the given page is available without waiting.
+         */
+        boolean contains(PageKey key);
+
+        /**
+         * Decodes the given page onto a bitmap from the given pool. The page may be of a different
+         * size than the key.
+         *
+         * @param wait whether to wait for the page to arrive, up to the timeout of this source.
+         * @return     the page, or null if it did not arrive in time.
+         */
+        Bitmap fetch(PageKey key, BitmapPool pool, boolean wait) throws InterruptedException;
+    }
+
+    private final RendererPool mRenderers;
+    private final PageCache mCache;
+    private final BitmapPool mPool;
+    private final PageDiskCache mDiskCache;
+    private final RenderScheduler mScheduler;
+    private final Executor mMainThreadExecutor;
+    private final Map<Object, Batch> mLatestBatches;
+    private final Map<PageKey, CountDownLatch> mRenderingKeys;
+    private final List<Request> mPrefetchRequests;
+    private boolean mProgressive;
+    private volatile Bitmap.Config mBitmapConfig;
+    private volatile PageSource mPageSource;
+
+    // The sizes of the pages, once loaded.
+    private volatile int[] mPageWidths;
+    private volatile int[] mPageHeights;
+
+    public PageRenderWorker(RendererPool renderers, PageCache cache, BitmapPool pool,
+                            PageDiskCache diskCache) {
+        mRenderers = renderers;
+        mCache = cache;
+        mPool = pool;
+        mDiskCache = diskCache;
+        mScheduler = new RenderScheduler(renderers.size());
+        mMainThreadExecutor = Utils.mainThreadExecutor();
+        mLatestBatches = new ConcurrentHashMap<>();
+        mRenderingKeys = new ConcurrentHashMap<>();
+        mPrefetchRequests = new ArrayList<>();
+        mProgressive = true;
+        mBitmapConfig = Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Enables or disables the progressive rendering of the pages requested by {@link #render}.
+     * Enabled by default.
+     */
+    public void setProgressive(boolean progressive) {
+        mProgressive = progressive;
+    }
+
+    /**
+     * Sets the config of the bitmaps to render the pages on, if the backend supports it.
+     * {@link Bitmap.Config#ARGB_8888} by default. Applies to the pages rendered from now on.
+     */
+    public void setBitmapConfig(Bitmap.Config config) {
+        mBitmapConfig = config;
+    }
+
+    /**
+     * Sets the source to take the full pages from before rendering them, or null to always render
+     * them locally.
+     */
+    public void setPageSource(PageSource source) {
+        mPageSource = source;
+    }
+
+    /**
+     * Returns the scheduler of this worker, which exposes the queue statistics.
+     */
+    public RenderScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Returns the key of the low resolution preview of the given page.
+     */
+    public static PageKey getPreviewKey(PageKey key) {
+        return key.scaleDown(PREVIEW_SCALE);
+    }
+
+    /**
+     * Requests the given page to be rendered so that it fits in the bounds given by the key while
+     * keeping the aspect ratio of the source page. Any pending request for the same target is
+     * cancelled.
+     *
+     * If the page is already in the cache, the callback is called immediately. Otherwise, the
+     * preview of the page is delivered first if progressive rendering is enabled. This method must
+     * be called on the main thread.
+     *
+     * @param target   the object that will display the result, used to identify stale requests.
+     * @param key      the key of the page to render.
+     * @param callback the callback to receive the rendered page.
+     */
+    public void render(Object target, PageKey key, Callback callback) {
+        renderAll(target, Collections.singletonList(key), callback, Priority.VISIBLE,
+                mProgressive, true);
+    }
+
+    /**
+     * Requests the given tiles to be rendered. Any pending request for the same target is
+     * cancelled. The callback is called once for each tile, as soon as it is rendered.
+     *
+     * The tiles which are already in the cache are delivered immediately. This method must be
+     * called on the main thread.
+     *
+     * @param target   the object that will display the tiles, used to identify stale requests.
+     * @param keys     the keys of the tiles to render, in the order of priority.
+     * @param callback the callback to receive the rendered tiles.
+     */
+    public void renderTiles(Object target, List<PageKey> keys, Callback callback) {
+        renderAll(target, keys, callback, Priority.TILE, false, true);
+    }
+
+    /**
+     * Requests low resolution thumbnails of the given pages, for navigating through the document.
+     * Any pending request for the same target is cancelled. Thumbnails are rendered after all the
+     * other work, and unlike the other requests, they do not cancel the pending prefetches.
+     *
+     * The thumbnails which are already in the cache are delivered immediately. This method must be
+     * called on the main thread.
+     *
+     * @param target   the object that will display the thumbnails, used to identify stale requests.
+     * @param keys     the keys of the thumbnails to render, in the order of priority.
+     * @param callback the callback to receive the rendered thumbnails.
+     */
+    public void renderThumbnails(Object target, List<PageKey> keys, Callback callback) {
+        renderAll(target, keys, callback, Priority.THUMBNAIL, false, true);
+    }
+
+    /**
+     * Requests the given pages to be rendered for another device. Any pending request for the same
+     * target is cancelled. These are scheduled along with the prefetches, and do not cancel them.
+     * The pages are rendered at the screen size of the other device, so they are not written to
+     * the disk cache of this device.
+     *
+     * The pages which are already in the cache are delivered immediately. This method must be
+     * called on the main thread.
+     *
+     * @param target   the object that publishes the pages, used to identify stale requests.
+     * @param keys     the keys of the pages to render, in the order of priority.
+     * @param callback the callback to receive the rendered pages.
+     */
+    public void renderForPeer(Object target, List<PageKey> keys, Callback callback) {
+        renderAll(target, keys, callback, Priority.PREFETCH, false, false);
+    }
+
+    private void renderAll(Object target, List<PageKey> keys, Callback callback,
+                           Priority priority, boolean progressive, boolean persistent) {
+        // The pages to be displayed take over the threads from the prefetches.
+        if (!priority.isBackground()) {
+            cancelPrefetches();
+        }
+        cancel(target);
+
+        List<PageKey> missing = new ArrayList<>();
+        for (PageKey key : keys) {
+            Bitmap cached = mCache.getAndPin(key);
+            if (cached != null) {
+                callback.onPageRendered(key, cached);
+            } else {
+                missing.add(key);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Batch batch = new Batch(target);
+        mLatestBatches.put(target, batch);
+
+        for (PageKey key : missing) {
+            Request request = new Request(batch, key, callback);
+            request.mProgressive = progressive;
+            request.mPersistent = persistent;
+            request.mFromSource = priority == Priority.VISIBLE;
+            request.mWaitForSource = request.mFromSource;
+            batch.mRequests.add(request);
+            request.mFuture = mScheduler.submit(request, priority);
+        }
+    }
+
+    /**
+     * Loads the sizes of all the pages in the background, unless they are already loaded. This
+     * method must be called on the main thread.
+     *
+     * The pages are read in batches at the prefetch priority, and the renderer is given back
+     * between the batches, so that a long document does not hold up the pages being displayed.
+     */
+    public void loadPageSizes(PageSizesCallback callback) {
+        if (mPageHeights != null) {
+            callback.onPageSizesLoaded(mPageWidths, mPageHeights);
+            return;
+        }
+
+        int pageCount = mRenderers.getPageCount();
+        readPageSizes(new int[pageCount], new int[pageCount], 0, callback);
+    }
+
+    private void readPageSizes(int[] widths, int[] heights, int start,
+                               PageSizesCallback callback) {
+        mScheduler.submit(() -> {
+            if (mPageHeights == null) {
+                int end;
+                try {
+                    end = readPageSizes(widths, heights, start);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (end < 0) {
+                    // Shut down in the meantime.
+                    return;
+                }
+                if (end < heights.length) {
+                    readPageSizes(widths, heights, end, callback);
+                    return;
+                }
+
+                mPageWidths = widths;
+                mPageHeights = heights;
+            }
+            mMainThreadExecutor.execute(
+                    () -> callback.onPageSizesLoaded(mPageWidths, mPageHeights));
+        }, Priority.PREFETCH);
+    }
+
+    /**
+     * Reads the sizes of the next batch of pages from the given page on.
+     *
+     * @return the page following the batch, or -1 if the renderers are closed.
+     */
+    private int readPageSizes(int[] widths, int[] heights, int start)
+            throws InterruptedException {
+        PageRenderer renderer = mRenderers.acquire();
+        if (renderer == null) {
+            return -1;
+        }
+
+        try {
+            int end = Math.min(start + PAGE_SIZES_BATCH, heights.length);
+            for (int i = start; i < end; ++i) {
+                try (Page page = renderer.openPage(i)) {
+                    widths[i] = page.getWidth();
+                    heights[i] = page.getHeight();
+                }
+            }
+            return end;
+        } finally {
+            mRenderers.release(renderer);
+        }
+    }
+
+    /**
+     * Renders the given pages into the cache in the background, in the given order. The pending
+     * prefetches from the previous call are cancelled. This method must be called on the main
+     * thread.
+     *
+     * @param keys the keys of the pages to prefetch.
+     */
+    public void prefetch(List<PageKey> keys) {
+        cancelPrefetches();
+
+        for (PageKey key : keys) {
+            if (mCache.get(key) != null) {
+                continue;
+            }
+
+            // Only the pages which have already arrived are taken from the source.
+            Request request = new Request(null, key, null);
+            request.mFromSource = true;
+            mPrefetchRequests.add(request);
+            request.mFuture = mScheduler.submit(request, Priority.PREFETCH);
+        }
+    }
+
+    private void cancelPrefetches() {
+        for (Request request : mPrefetchRequests) {
+            request.cancel();
+        }
+        mPrefetchRequests.clear();
+    }
+
+    /**
+     * Cancels the pending requests for the given target, if any.
+     */
+    public void cancel(Object target) {
+        Batch batch = mLatestBatches.remove(target);
+        if (batch != null) {
+            batch.cancel();
+        }
+    }
+
+    /**
+     * Cancels all the pending requests and closes the underlying renderers once the currently
+     * running renders, if any, are finished.
+     */
+    public void shutdown() {
+        cancelPrefetches();
+
+        for (Batch batch : mLatestBatches.values()) {
+            batch.cancel();
+        }
+        mLatestBatches.clear();
+
+        mScheduler.shutdown();
+        mRenderers.close();
+    }
+
+    /**
+     * Renders the page, the tile or the region given by the key on a bitmap from the pool.
+     *
+     * @return the rendered bitmap, or null if this worker has been shut down.
+     */
+    private Bitmap renderPage(PageKey key) throws InterruptedException {
+        PageRenderer renderer = mRenderers.acquire();
+        if (renderer == null) {
+            return null;
+        }
+
+        try (Page page = renderer.openPage(key.getPage() - 1)) {
+            Bitmap.Config config = page.canRenderTo(mBitmapConfig)
+                    ? mBitmapConfig
+                    : Bitmap.Config.ARGB_8888;
+
+            Bitmap bitmap;
+            if (key.isTile()) {
+                bitmap = mPool.get(TileRenderer.TILE_SIZE, TileRenderer.TILE_SIZE, config);
+            } else if (key.isRegion()) {
+                bitmap = mPool.get(key.getRegionWidth(), key.getRegionHeight(), config);
+            } else {
+                // Fit the entire bounds while keeping the aspect ratio of the source.
+                float scale = TileRenderer.getFitScale(page, key.getWidth(), key.getHeight());
+                bitmap = mPool.get(
+                        Math.round(page.getWidth() * scale),
+                        Math.round(page.getHeight() * scale),
+                        config);
+            }
+
+            try {
+                if (key.isTile()) {
+                    TileRenderer.render(page, key, bitmap);
+                } else if (key.isRegion()) {
+                    Spreads.render(page, key, bitmap);
+                } else {
+                    page.render(bitmap, null);
+                }
+            } catch (RuntimeException e) {
+                mPool.put(bitmap);
+                throw e;
+            }
+
+            return bitmap;
+        } finally {
+            mRenderers.release(renderer);
+        }
+    }
+
+    /**
+     * A group of requests from the same target, which are superseded together.
+     * Only accessed on the main thread.
+     */
+    private class Batch {
+        private final Object mTarget;
+        private final List<Request> mRequests;
+        private int mPendingCount;
+
+        Batch(Object target) {
+            mTarget = target;
+            mRequests = new ArrayList<>();
+        }
+
+        boolean isLatest() {
+            return mLatestBatches.get(mTarget) == this;
+        }
+
+        void finishRequest() {
+            if (--mPendingCount == 0 && isLatest()) {
+                mLatestBatches.remove(mTarget);
+            }
+        }
+
+        void cancel() {
+            for (Request request : mRequests) {
+                request.cancel();
+            }
+        }
+    }
+
+    private class Request implements Runnable {
+        private final Batch mBatch;
+        private final PageKey mKey;
+        private final Callback mCallback;
+
+        private volatile boolean mCancelled;
+        private Future<?> mFuture;
+        private boolean mProgressive;
+        // Whether the requested page is read from and written to the disk cache.
+        private boolean mPersistent = true;
+        // Whether the page may be taken from the page source, and whether to wait for it there.
+        private boolean mFromSource;
+        private boolean mWaitForSource;
+
+        Request(Batch batch, PageKey key, Callback callback) {
+            mBatch = batch;
+            mKey = key;
+            mCallback = callback;
+
+            if (batch != null) {
+                ++batch.mPendingCount;
+            }
+        }
+
+        void cancel() {
+            mCancelled = true;
+            if (mFuture != null) {
+                mFuture.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            // Prefetched pages are only put in the cache.
+            boolean deliver = mCallback != null;
+
+            // The page may have been rendered for another target while this one was waiting.
+            Bitmap bitmap = deliver ? mCache.getAndPin(mKey) : mCache.get(mKey);
+
+            // No need for a preview if the full page can be read from the disk or the source.
+            if (bitmap == null && mProgressive && !mDiskCache.contains(mKey)
+                    && !isInSource(mKey)) {
+                PageKey previewKey = getPreviewKey(mKey);
+                Bitmap preview = getOrRender(previewKey);
+                if (preview != null) {
+                    deliver(previewKey, preview, false);
+                }
+
+                if (mCancelled) {
+                    finish();
+                    return;
+                }
+            }
+
+            if (bitmap == null) {
+                bitmap = getOrRender(mKey);
+            }
+
+            if (bitmap == null) {
+                finish();
+            } else if (deliver) {
+                deliver(mKey, bitmap, true);
+            }
+        }
+
+        /**
+         * Renders the page given by the key and puts it in the cache, unless it is already there.
+         * The result is pinned if it is going to be delivered.
+         *
+         * The requested full page is read from the disk cache or the page source if possible, and
+         * is written to the disk cache after being rendered. Previews, tiles and the pages
+         * rendered for peers are only kept in memory. If another thread is already rendering the
+         * same key, this waits for its result instead of rendering it again.
+         *
+         * @return the rendered page, or null if the rendering failed.
+         */
+        private Bitmap getOrRender(PageKey key) {
+            boolean deliver = mCallback != null;
+
+            Bitmap bitmap = deliver ? mCache.getAndPin(key) : mCache.get(key);
+            if (bitmap != null) {
+                return bitmap;
+            }
+
+            CountDownLatch rendering = new CountDownLatch(1);
+            CountDownLatch other = mRenderingKeys.putIfAbsent(key, rendering);
+            if (other != null) {
+                try {
+                    other.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                return getOrRender(key);
+            }
+
+            try {
+                return load(key);
+            } finally {
+                mRenderingKeys.remove(key);
+                rendering.countDown();
+            }
+        }
+
+        private Bitmap load(PageKey key) {
+            boolean deliver = mCallback != null;
+            Bitmap bitmap = null;
+
+            boolean persistent = mPersistent && key == mKey && !key.isTile();
+            if (persistent) {
+                bitmap = mDiskCache.get(key, mPool);
+            }
+
+            PageSource source = mPageSource;
+            if (bitmap == null && persistent && mFromSource && source != null
+                    && !key.isRegion()) {
+                try {
+                    bitmap = source.fetch(key, mPool, mWaitForSource);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+
+            if (bitmap == null) {
+                try {
+                    bitmap = renderPage(key);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Could not render " + key + ": " + e.getMessage(), e);
+                    return null;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+
+                if (bitmap == null) {
+                    return null;
+                }
+
+                if (persistent) {
+                    // Keep the bitmap from being reused until it is written.
+                    final Bitmap written = bitmap;
+                    mCache.pin(written);
+                    mDiskCache.put(key, written, () -> mCache.unpin(written));
+                }
+            }
+
+            // Pin the bitmap before it becomes visible to the other cache users.
+            if (deliver) {
+                mCache.pin(bitmap);
+            }
+            mCache.put(key, bitmap);
+
+            return bitmap;
+        }
+
+        private boolean isInSource(PageKey key) {
+            PageSource source = mPageSource;
+            return mFromSource && source != null && !key.isRegion() && source.contains(key);
+        }
+
+        /**
+         * Delivers the given pinned bitmap on the main thread, if no newer request arrived in the
+         * meantime.
+         *
+         * @param last whether this is the last delivery for this request.
+         */
+        private void deliver(PageKey key, Bitmap bitmap, boolean last) {
+            mMainThreadExecutor.execute(() -> {
+                if (mCancelled || !mBatch.isLatest()) {
+                    mCache.unpin(bitmap);
+                    return;
+                }
+
+                if (last) {
+                    mBatch.finishRequest();
+                }
+                mCallback.onPageRendered(key, bitmap);
+            });
+        }
+
+        private void finish() {
+            if (mCallback != null) {
+                mMainThreadExecutor.execute(mBatch::finishRequest);
+            }
+        }
+    }
+
+}
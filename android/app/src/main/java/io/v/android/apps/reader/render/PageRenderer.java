@@ -0,0 +1,76 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A PDF library which renders the pages of an opened document.
+ *
+ * The interface follows {@link android.graphics.pdf.PdfRenderer}: only one page may be open at a
+ * time, and an instance must not be used by several threads at once. Use a {@link RendererPool}
+ * to render several pages concurrently.
+ */
+public interface PageRenderer extends AutoCloseable {
+
+    /**
+     * Opens the renderers of a specific backend.
+     */
+    interface Factory {
+        /**
+         * Opens a renderer for the given PDF file.
+         *
+         * @throws IOException if the file could not be opened or is not a valid PDF file.
+         */
+        PageRenderer open(File file) throws IOException;
+    }
+
+    /**
+     * A page opened by {@link PageRenderer#openPage}.
+     */
+    interface Page extends AutoCloseable {
+        /**
+         * Returns the width of the page in points (1/72 inch).
+         */
+        int getWidth();
+
+        /**
+         * Returns the height of the page in points (1/72 inch).
+         */
+        int getHeight();
+
+        /**
+         * Renders the page on the given bitmap.
+         *
+         * @param destination the bitmap to render on.
+         * @param transform   the transformation from the page points to the bitmap pixels, or null
+         *                    to stretch the page over the whole bitmap.
+         */
+        void render(Bitmap destination, Matrix transform);
+
+        /**
+         * Returns whether the page can be rendered on a bitmap of the given config.
+         */
+        boolean canRenderTo(Bitmap.Config config);
+
+        @Override
+        void close();
+    }
+
+    int getPageCount();
+
+    /**
+     * Opens the page at the given index. Page index is zero-based.
+     */
+    Page openPage(int index);
+
+    @Override
+    void close();
+
+}
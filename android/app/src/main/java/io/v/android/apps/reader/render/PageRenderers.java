@@ -0,0 +1,48 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+
+import io.v.android.apps.reader.R;
+
+/**
+ * Chooses the {@link PageRenderer} backend.
+ */
+public final class PageRenderers {
+
+    /**
+     * Name of the backend using the platform {@link android.graphics.pdf.PdfRenderer}.
+     */
+    public static final String BACKEND_PLATFORM = "platform";
+
+    /**
+     * Name of the backend using PdfBox.
+     */
+    public static final String BACKEND_PDFBOX = "pdfbox";
+
+    private PageRenderers() {
+    }
+
+    /**
+     * Returns the factory of the backend given by the {@code page_renderer_backend} resource.
+     */
+    public static PageRenderer.Factory getFactory(Context context) {
+        return getFactory(context, context.getString(R.string.page_renderer_backend));
+    }
+
+    /**
+     * Returns the factory of the backend with the given name, or the platform backend if there is
+     * no such backend.
+     */
+    public static PageRenderer.Factory getFactory(Context context, String backend) {
+        if (BACKEND_PDFBOX.equals(backend)) {
+            return PdfBoxPageRenderer.factory(context);
+        }
+
+        return PlatformPageRenderer.FACTORY;
+    }
+
+}
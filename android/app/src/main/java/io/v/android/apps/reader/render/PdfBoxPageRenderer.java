@@ -0,0 +1,126 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import com.tom_roush.pdfbox.pdmodel.PDDocument;
+import com.tom_roush.pdfbox.pdmodel.PDPage;
+import com.tom_roush.pdfbox.pdmodel.common.PDRectangle;
+import com.tom_roush.pdfbox.rendering.PDFRenderer;
+import com.tom_roush.pdfbox.util.PDFBoxResourceLoader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link PageRenderer} backed by PdfBox, which is written purely in Java.
+ *
+ * It is usually slower than the platform renderer, but does not depend on the native PDF library
+ * of the device. This makes it useful as a fallback for the documents which the platform renderer
+ * handles poorly, and as a baseline when measuring the render throughput.
+ */
+public class PdfBoxPageRenderer implements PageRenderer {
+
+    private final PDDocument mDocument;
+    private final PDFRenderer mRenderer;
+
+    /**
+     * Returns the factory of this backend, initializing PdfBox if needed.
+     */
+    public static Factory factory(Context context) {
+        PDFBoxResourceLoader.init(context.getApplicationContext());
+        return PdfBoxPageRenderer::new;
+    }
+
+    private PdfBoxPageRenderer(File file) throws IOException {
+        mDocument = PDDocument.load(file);
+        mRenderer = new PDFRenderer(mDocument);
+    }
+
+    @Override
+    public int getPageCount() {
+        return mDocument.getNumberOfPages();
+    }
+
+    @Override
+    public Page openPage(int index) {
+        return new PdfBoxPage(index);
+    }
+
+    @Override
+    public void close() {
+        try {
+            mDocument.close();
+        } catch (IOException e) {
+            // Nothing to do, since the document is only read.
+        }
+    }
+
+    private class PdfBoxPage implements Page {
+
+        private final int mIndex;
+        private final int mWidth;
+        private final int mHeight;
+
+        PdfBoxPage(int index) {
+            mIndex = index;
+
+            PDPage page = mDocument.getPage(index);
+            PDRectangle box = page.getCropBox();
+            boolean rotated = page.getRotation() % 180 != 0;
+            mWidth = Math.round(rotated ? box.getHeight() : box.getWidth());
+            mHeight = Math.round(rotated ? box.getWidth() : box.getHeight());
+        }
+
+        @Override
+        public int getWidth() {
+            return mWidth;
+        }
+
+        @Override
+        public int getHeight() {
+            return mHeight;
+        }
+
+        @Override
+        public void render(Bitmap destination, Matrix transform) {
+            Canvas canvas = new Canvas(destination);
+            if (transform != null) {
+                canvas.concat(transform);
+            } else {
+                canvas.scale((float) destination.getWidth() / mWidth,
+                        (float) destination.getHeight() / mHeight);
+            }
+
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setColor(Color.WHITE);
+            canvas.drawRect(0, 0, mWidth, mHeight, paint);
+
+            try {
+                mRenderer.renderPageToGraphics(mIndex, paint, canvas, 1f);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not render page " + mIndex, e);
+            }
+        }
+
+        @Override
+        public boolean canRenderTo(Bitmap.Config config) {
+            // Any bitmap can be drawn on through a Canvas.
+            return true;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do, since the pages are not kept open.
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.v.android.apps.reader.Utils;
+import io.v.android.apps.reader.db.DB;
+import io.v.android.apps.reader.db.DB.DBList;
+import io.v.android.apps.reader.model.IdFactory;
+import io.v.android.apps.reader.vdl.Device;
+import io.v.android.apps.reader.vdl.DeviceMeta;
+import io.v.android.apps.reader.vdl.DeviceSet;
+import io.v.android.apps.reader.vdl.PageImage;
+import io.v.android.apps.reader.vdl.Screen;
+
+/**
+ * Renders the upcoming pages of the linked peers which ask for them, at the sizes of their screens,
+ * and publishes them through the DB as {@link PageImage}s.
+ *
+ * The pages are rendered in the background along with the prefetches of this device, and are
+ * compressed on a separate thread. The images are withdrawn once the peers move away from them, so
+ * that only a few images per peer are kept in the DB.
+ *
+ * The document is opened in the background, and the updates made until then are applied once it
+ * is open. All the methods must be called on the main thread.
+ */
+public class PeerImagePublisher {
+
+    private static final String TAG = PeerImagePublisher.class.getSimpleName();
+
+    private final Context mContext;
+    private final DB mDB;
+    private final String mFileId;
+    private final String mDeviceId;
+    private final DocumentSessions.AcquireCallback mAcquireCallback;
+    private DocumentSession mSession;
+    private PageRenderWorker mWorker;
+    private final ExecutorService mEncoder;
+    private final Executor mMainThreadExecutor;
+
+    // The images being rendered, being compressed, and written to the DB, by their ids.
+    private final Map<String, PageKey> mPending;
+    private final Set<String> mEncoding;
+    private final Set<String> mWritten;
+    private boolean mClosed;
+
+    // The latest update made before the document was open.
+    private DeviceSet mDeferredDeviceSet;
+    private DBList<Device> mDeferredDevices;
+
+    /**
+     * Creates a publisher for the given file, which holds on to the document until it is closed.
+     *
+     * @param deviceId the id of this device.
+     */
+    public PeerImagePublisher(Context context, DB db, String fileId, String deviceId) {
+        mContext = context;
+        mDB = db;
+        mFileId = fileId;
+        mDeviceId = deviceId;
+        mEncoder = Executors.newSingleThreadExecutor();
+        mMainThreadExecutor = Utils.mainThreadExecutor();
+        mPending = new HashMap<>();
+        mEncoding = new HashSet<>();
+        mWritten = new HashSet<>();
+
+        mAcquireCallback = new DocumentSessions.AcquireCallback() {
+            @Override
+            public void onAcquired(DocumentSession session) {
+                mSession = session;
+                mWorker = session.getWorker();
+                if (mDeferredDeviceSet != null) {
+                    update(mDeferredDeviceSet, mDeferredDevices);
+                    mDeferredDeviceSet = null;
+                    mDeferredDevices = null;
+                }
+            }
+
+            @Override
+            public void onFailed(IOException e) {
+                // The peers render their own pages.
+                Log.e(TAG, "Could not open " + mFileId + ": " + e.getMessage(), e);
+                mDeferredDeviceSet = null;
+                mDeferredDevices = null;
+            }
+        };
+        DocumentSessions.getInstance(context).acquire(fileId, mAcquireCallback);
+    }
+
+    public String getFileId() {
+        return mFileId;
+    }
+
+    /**
+     * Renders the pages the peers in the given device set are about to show, and withdraws the
+     * images which are no longer needed.
+     *
+     * @param devices the devices of this user, which give the screen sizes of the peers.
+     */
+    public void update(DeviceSet ds, DBList<Device> devices) {
+        if (mClosed) {
+            return;
+        }
+
+        if (mSession == null) {
+            mDeferredDeviceSet = ds;
+            mDeferredDevices = devices;
+            return;
+        }
+
+        int pageCount = mSession.getPageCount();
+        Set<String> wanted = new HashSet<>();
+        List<PageKey> keys = new ArrayList<>();
+
+        for (DeviceMeta dm : ds.getDevices().values()) {
+            if (!dm.getLinked() || !dm.getPeerImages() || dm.getDeviceId().equals(mDeviceId)) {
+                continue;
+            }
+
+            Device device = devices.getItemById(dm.getDeviceId());
+            if (device == null || device.getScreen() == null) {
+                continue;
+            }
+
+            Screen screen = device.getScreen();
+            int lastPage = Math.min(dm.getPage() + PeerImages.PAGES_AHEAD, pageCount);
+            for (int page = Math.max(1, dm.getPage()); page <= lastPage; ++page) {
+                String id = IdFactory.getPageImageId(
+                        mFileId, page, screen.getWidth(), screen.getHeight());
+                if (wanted.add(id) && !mPending.containsKey(id) && !mEncoding.contains(id)
+                        && !mWritten.contains(id)) {
+                    keys.add(new PageKey(
+                            mFileId, page, screen.getWidth(), screen.getHeight(), 1));
+                }
+            }
+        }
+
+        mPending.keySet().retainAll(wanted);
+        mEncoding.retainAll(wanted);
+        for (Iterator<String> it = mWritten.iterator(); it.hasNext(); ) {
+            String id = it.next();
+            if (!wanted.contains(id)) {
+                mDB.deletePageImage(id);
+                it.remove();
+            }
+        }
+
+        // The pages still being rendered for the previous update are requested again, since the
+        // new request supersedes the previous one.
+        for (PageKey key : keys) {
+            mPending.put(getId(key), key);
+        }
+        keys = new ArrayList<>(mPending.values());
+
+        mWorker.renderForPeer(this, keys, this::publish);
+    }
+
+    /**
+     * Withdraws all the published images, and releases the document.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        mEncoder.shutdown();
+        mDeferredDeviceSet = null;
+        mDeferredDevices = null;
+
+        if (mSession == null) {
+            DocumentSessions.getInstance(mContext).cancel(mAcquireCallback);
+            return;
+        }
+
+        mWorker.cancel(this);
+
+        for (String id : mWritten) {
+            mDB.deletePageImage(id);
+        }
+        mWritten.clear();
+        mPending.clear();
+        mEncoding.clear();
+
+        DocumentSessions.getInstance(mContext).release(mSession);
+    }
+
+    private void publish(PageKey key, Bitmap bitmap) {
+        String id = getId(key);
+        if (mClosed || mPending.remove(id) == null) {
+            PageCache.getInstance().unpin(bitmap);
+            return;
+        }
+
+        mEncoding.add(id);
+
+        mEncoder.execute(() -> {
+            PageImage image;
+            try {
+                image = PeerImages.encode(key, bitmap);
+            } finally {
+                PageCache.getInstance().unpin(bitmap);
+            }
+
+            mMainThreadExecutor.execute(() -> {
+                // Drop the image if the peer moved away while it was being compressed.
+                if (!mClosed && mEncoding.remove(id)) {
+                    mDB.addPageImage(image);
+                    mWritten.add(id);
+                }
+            });
+        });
+    }
+
+    private static String getId(PageKey key) {
+        return IdFactory.getPageImageId(
+                key.getFileId(), key.getPage(), key.getWidth(), key.getHeight());
+    }
+
+}
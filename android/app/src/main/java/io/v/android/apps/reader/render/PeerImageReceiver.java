@@ -0,0 +1,185 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.v.android.apps.reader.db.DB;
+import io.v.android.apps.reader.db.DB.DBList;
+import io.v.android.apps.reader.model.Listener;
+import io.v.android.apps.reader.vdl.PageImage;
+import io.v.android.apps.reader.vdl.Screen;
+
+/**
+ * Supplies the pages rendered for this device by a peer to a {@link PageRenderWorker}.
+ *
+ * The page images published for the file and the screen size of this device are watched in the
+ * DB. A page which has not arrived yet is waited for up to the given timeout, after which the
+ * worker falls back to rendering it locally. The pages are only waited for while a helper is
+ * publishing them, i.e. a helper is chosen and it has published a page recently, so that the pages
+ * are not held back when no page is coming.
+ *
+ * The images are rendered for the screen size of this device, so they are only supplied for the
+ * keys of that size. The pages requested at any other size are rendered locally, rather than
+ * stretched from an image of the wrong size.
+ *
+ * The constructor and {@link #close} must be called on the main thread. The {@link PageSource}
+ * methods may be called on any thread.
+ */
+public class PeerImageReceiver implements PageRenderWorker.PageSource {
+
+    // How long a helper is considered to be publishing after it is chosen, or after a page from it
+    // arrived.
+    private static final long PUBLISHING_WINDOW_MILLIS = 30 * 1000L;
+
+    private final String mFileId;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mTimeoutMillis;
+    private final DBList<PageImage> mImages;
+
+    // The images for this device by their page numbers, guarded by this.
+    private final Map<Integer, PageImage> mArrived;
+    private boolean mClosed;
+    private boolean mHelperChosen;
+    // When the helper was chosen, or a page last arrived, by SystemClock.uptimeMillis().
+    private long mLastActivityMillis;
+
+    /**
+     * Creates a receiver for the given file, which watches the DB until it is closed.
+     *
+     * @param screen        the screen of this device, which the pages are rendered for.
+     * @param timeoutMillis how long to wait for a page which has not arrived yet.
+     */
+    public PeerImageReceiver(DB db, String fileId, Screen screen, long timeoutMillis) {
+        mFileId = fileId;
+        mWidth = screen.getWidth();
+        mHeight = screen.getHeight();
+        mTimeoutMillis = timeoutMillis;
+        mArrived = new HashMap<>();
+
+        mImages = db.getPageImageList();
+        mImages.setListener(new Listener() {
+            @Override
+            public void notifyItemChanged(int position) {
+                reload();
+            }
+
+            @Override
+            public void notifyItemInserted(int position) {
+                reload();
+            }
+
+            @Override
+            public void notifyItemRemoved(int position) {
+                reload();
+            }
+        });
+        reload();
+    }
+
+    /**
+     * Stops watching the DB, and lets the pending fetches fall back to the local rendering.
+     */
+    public void close() {
+        mImages.discard();
+
+        synchronized (this) {
+            mClosed = true;
+            mArrived.clear();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Tells whether a helper is chosen in the device set to publish the pages for this device.
+     */
+    public synchronized void setHelperChosen(boolean chosen) {
+        if (chosen && !mHelperChosen) {
+            mLastActivityMillis = SystemClock.uptimeMillis();
+        }
+        mHelperChosen = chosen;
+    }
+
+    @Override
+    public synchronized boolean contains(PageKey key) {
+        return matches(key) && mArrived.containsKey(key.getPage());
+    }
+
+    @Override
+    public Bitmap fetch(PageKey key, BitmapPool pool, boolean wait) throws InterruptedException {
+        if (!matches(key)) {
+            return null;
+        }
+
+        PageImage image;
+        synchronized (this) {
+            long deadline = wait && isPublishing()
+                    ? SystemClock.uptimeMillis() + mTimeoutMillis
+                    : 0L;
+            while ((image = mArrived.get(key.getPage())) == null && !mClosed) {
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        }
+
+        return image != null ? PeerImages.decode(image, pool) : null;
+    }
+
+    /**
+     * Returns whether the given key asks for the images published for this device.
+     */
+    private boolean matches(PageKey key) {
+        return key.getFileId().equals(mFileId)
+                && key.getWidth() == mWidth
+                && key.getHeight() == mHeight;
+    }
+
+    private boolean isPublishing() {
+        return mHelperChosen
+                && SystemClock.uptimeMillis() - mLastActivityMillis < PUBLISHING_WINDOW_MILLIS;
+    }
+
+    /**
+     * Collects the images for this device from the list. The list is small, since the publisher
+     * withdraws the images the peers no longer need.
+     */
+    private void reload() {
+        Map<Integer, PageImage> arrived = new HashMap<>();
+        for (int i = 0; i < mImages.getItemCount(); ++i) {
+            PageImage image = mImages.getItem(i);
+            if (image.getFileId().equals(mFileId)
+                    && image.getWidth() == mWidth
+                    && image.getHeight() == mHeight) {
+                arrived.put(image.getPage(), image);
+            }
+        }
+
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+
+            for (Map.Entry<Integer, PageImage> entry : arrived.entrySet()) {
+                if (!entry.getValue().equals(mArrived.get(entry.getKey()))) {
+                    mLastActivityMillis = SystemClock.uptimeMillis();
+                    break;
+                }
+            }
+
+            mArrived.clear();
+            mArrived.putAll(arrived);
+            notifyAll();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.preference.PreferenceManager;
+
+import java.io.ByteArrayOutputStream;
+
+import io.v.android.apps.reader.db.DB.DBList;
+import io.v.android.apps.reader.vdl.Device;
+import io.v.android.apps.reader.vdl.DeviceMeta;
+import io.v.android.apps.reader.vdl.DeviceSet;
+import io.v.android.apps.reader.vdl.PageImage;
+import io.v.android.apps.reader.vdl.Screen;
+
+/**
+ * Helpers for the peer-assisted rendering, in which a capable device in a device set renders the
+ * upcoming pages of the slower linked devices and publishes them as {@link PageImage}s.
+ *
+ * A device asks for the page images through the {@link DeviceMeta#getPeerImages} flag, which is
+ * set from the {@link #PREFERENCE_KEY} preference when it joins a device set. The pages are
+ * rendered by a {@link PeerImagePublisher} on the helper device, and received by a
+ * {@link PeerImageReceiver} on the requesting devices.
+ */
+public final class PeerImages {
+
+    /**
+     * The key of the preference which makes this device display the pages rendered by a peer.
+     */
+    public static final String PREFERENCE_KEY = "peer_images";
+
+    /**
+     * The number of pages after the current page of a peer which are rendered for it.
+     */
+    static final int PAGES_AHEAD = 2;
+
+    private static final String MIME_TYPE = "image/jpeg";
+    private static final int QUALITY = 85;
+
+    private PeerImages() {
+    }
+
+    /**
+     * Returns whether this device should display the pages rendered by a peer.
+     */
+    public static boolean isRequested(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(PREFERENCE_KEY, false);
+    }
+
+    /**
+     * Chooses the device which renders the pages for the peers: the linked device with the largest
+     * screen among those rendering their own pages. Every device makes the same choice, so there
+     * is a single helper in a device set.
+     *
+     * @return the id of the helper device, or null if no linked device asks for the page images.
+     */
+    public static String chooseHelper(DeviceSet ds, DBList<Device> devices) {
+        boolean requested = false;
+        String helperId = null;
+        long helperArea = -1;
+
+        for (DeviceMeta dm : ds.getDevices().values()) {
+            if (!dm.getLinked()) {
+                continue;
+            }
+
+            if (dm.getPeerImages()) {
+                requested = true;
+                continue;
+            }
+
+            Device device = devices.getItemById(dm.getDeviceId());
+            if (device == null || device.getScreen() == null) {
+                continue;
+            }
+
+            Screen screen = device.getScreen();
+            long area = (long) screen.getWidth() * screen.getHeight();
+            if (area > helperArea
+                    || (area == helperArea && dm.getDeviceId().compareTo(helperId) < 0)) {
+                helperId = dm.getDeviceId();
+                helperArea = area;
+            }
+        }
+
+        return requested ? helperId : null;
+    }
+
+    /**
+     * Compresses the given rendered page into a page image. The key gives the size the page was
+     * rendered for, which identifies the image.
+     */
+    static PageImage encode(PageKey key, Bitmap bitmap) {
+        // JPEG has no alpha channel, so draw the page over a white background.
+        Bitmap opaque = Bitmap.createBitmap(
+                bitmap.getWidth(), bitmap.getHeight(), Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(opaque);
+        canvas.drawColor(Color.WHITE);
+        canvas.drawBitmap(bitmap, 0f, 0f, null);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        opaque.compress(Bitmap.CompressFormat.JPEG, QUALITY, out);
+        opaque.recycle();
+
+        return new PageImage(key.getFileId(), key.getPage(), key.getWidth(), key.getHeight(),
+                MIME_TYPE, out.toByteArray());
+    }
+
+    /**
+     * Decodes the given page image onto a bitmap from the given pool.
+     *
+     * @return the decoded page, or null if it could not be decoded.
+     */
+    static Bitmap decode(PageImage image, BitmapPool pool) {
+        byte[] data = image.getData();
+        if (data == null || data.length == 0) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;
+        options.inBitmap = pool.get(
+                options.outWidth, options.outHeight, Bitmap.Config.ARGB_8888);
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (bitmap == null) {
+            pool.put(options.inBitmap);
+        }
+
+        return bitmap;
+    }
+
+}
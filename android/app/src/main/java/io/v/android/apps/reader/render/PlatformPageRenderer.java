@@ -0,0 +1,79 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.pdf.PdfRenderer;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link PageRenderer} backed by the platform {@link PdfRenderer}.
+ */
+public class PlatformPageRenderer implements PageRenderer {
+
+    public static final Factory FACTORY = PlatformPageRenderer::new;
+
+    private final PdfRenderer mRenderer;
+
+    public PlatformPageRenderer(File file) throws IOException {
+        mRenderer = new PdfRenderer(
+                ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+    }
+
+    @Override
+    public int getPageCount() {
+        return mRenderer.getPageCount();
+    }
+
+    @Override
+    public Page openPage(int index) {
+        return new PlatformPage(mRenderer.openPage(index));
+    }
+
+    @Override
+    public void close() {
+        mRenderer.close();
+    }
+
+    private static class PlatformPage implements Page {
+
+        private final PdfRenderer.Page mPage;
+
+        PlatformPage(PdfRenderer.Page page) {
+            mPage = page;
+        }
+
+        @Override
+        public int getWidth() {
+            return mPage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mPage.getHeight();
+        }
+
+        @Override
+        public void render(Bitmap destination, Matrix transform) {
+            mPage.render(destination, null, transform, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+        }
+
+        @Override
+        public boolean canRenderTo(Bitmap.Config config) {
+            // PdfRenderer only renders on ARGB_8888 bitmaps.
+            return config == Bitmap.Config.ARGB_8888;
+        }
+
+        @Override
+        public void close() {
+            mPage.close();
+        }
+    }
+
+}
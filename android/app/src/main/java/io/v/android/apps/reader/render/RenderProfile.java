@@ -0,0 +1,161 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.preference.PreferenceManager;
+
+import io.v.android.apps.reader.model.DeviceInfoFactory;
+import io.v.android.apps.reader.vdl.Screen;
+
+/**
+ * The render quality settings of this device: the resolution of the rendered pages relative to the
+ * screen, the bitmap config, the prefetch depth and the budget of the {@link PageCache}.
+ *
+ * The profile is picked from the screen size recorded in the Device record and the memory class of
+ * the device, so that weak devices trade some quality for keeping up with the page turns of the
+ * linked group. It can be overridden in the settings.
+ */
+public final class RenderProfile {
+
+    /**
+     * The key of the preference which overrides the automatic choice. The value is the name of a
+     * {@link Tier}, or {@link #AUTOMATIC}.
+     */
+    public static final String PREFERENCE_KEY = "render_profile";
+    public static final String AUTOMATIC = "AUTOMATIC";
+
+    public enum Tier {
+        LOW,
+        MEDIUM,
+        HIGH
+    }
+
+    private static final RenderProfile LOW =
+            new RenderProfile(Tier.LOW, 0.75f, Bitmap.Config.RGB_565, 1, 16);
+    private static final RenderProfile MEDIUM =
+            new RenderProfile(Tier.MEDIUM, 1f, Bitmap.Config.ARGB_8888, 2, 8);
+    private static final RenderProfile HIGH =
+            new RenderProfile(Tier.HIGH, 1f, Bitmap.Config.ARGB_8888, 3, 6);
+
+    // The number of full-screen ARGB_8888 pages fitting in the heap, below which a tier is used.
+    private static final int LOW_TIER_MAX_PAGES = 16;
+    private static final int MEDIUM_TIER_MAX_PAGES = 40;
+
+    private final Tier mTier;
+    private final float mResolutionScale;
+    private final Bitmap.Config mBitmapConfig;
+    private final int mPrefetchDepth;
+    private final int mHeapDivisor;
+
+    private RenderProfile(Tier tier, float resolutionScale, Bitmap.Config bitmapConfig,
+                          int prefetchDepth, int heapDivisor) {
+        mTier = tier;
+        mResolutionScale = resolutionScale;
+        mBitmapConfig = bitmapConfig;
+        mPrefetchDepth = prefetchDepth;
+        mHeapDivisor = heapDivisor;
+    }
+
+    /**
+     * Returns the profile of this device, as chosen in the settings or picked automatically.
+     */
+    public static RenderProfile get(Context context) {
+        String override = PreferenceManager.getDefaultSharedPreferences(context)
+                .getString(PREFERENCE_KEY, AUTOMATIC);
+        if (!AUTOMATIC.equals(override)) {
+            try {
+                return forTier(Tier.valueOf(override));
+            } catch (IllegalArgumentException e) {
+                // Fall back to the automatic choice.
+            }
+        }
+
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        Screen screen = DeviceInfoFactory.getDevice(context).getScreen();
+        return forTier(chooseTier(
+                screen.getWidth(), screen.getHeight(), am.getMemoryClass(), am.isLowRamDevice()));
+    }
+
+    public static RenderProfile forTier(Tier tier) {
+        switch (tier) {
+            case LOW:
+                return LOW;
+            case HIGH:
+                return HIGH;
+            default:
+                return MEDIUM;
+        }
+    }
+
+    /**
+     * Picks the tier of a device, by how many full-screen pages fit in its heap.
+     *
+     * @param screenWidth   the width of the screen in pixels.
+     * @param screenHeight  the height of the screen in pixels.
+     * @param memoryClassMb the heap limit of the app in megabytes.
+     * @param lowRamDevice  whether the device is flagged as a low RAM device.
+     */
+    static Tier chooseTier(int screenWidth, int screenHeight, int memoryClassMb,
+                           boolean lowRamDevice) {
+        if (lowRamDevice) {
+            return Tier.LOW;
+        }
+
+        long pageBytes = 4L * Math.max(1, screenWidth) * Math.max(1, screenHeight);
+        long pages = memoryClassMb * 1024L * 1024L / pageBytes;
+        if (pages < LOW_TIER_MAX_PAGES) {
+            return Tier.LOW;
+        } else if (pages < MEDIUM_TIER_MAX_PAGES) {
+            return Tier.MEDIUM;
+        } else {
+            return Tier.HIGH;
+        }
+    }
+
+    public Tier getTier() {
+        return mTier;
+    }
+
+    /**
+     * Returns the resolution of the rendered pages relative to the size of the view displaying
+     * them. The tiles of zoomed pages are always rendered at full resolution.
+     */
+    public float getResolutionScale() {
+        return mResolutionScale;
+    }
+
+    /**
+     * Returns the preferred config of the rendered bitmaps. Backends which cannot render to this
+     * config use {@link Bitmap.Config#ARGB_8888} instead.
+     */
+    public Bitmap.Config getBitmapConfig() {
+        return mBitmapConfig;
+    }
+
+    /**
+     * Returns the number of pages to prefetch in the direction of the page navigation.
+     */
+    public int getPrefetchDepth() {
+        return mPrefetchDepth;
+    }
+
+    /**
+     * Returns the budget of the {@link PageCache} in bytes, as a share of the available heap.
+     */
+    public int getPageCacheBytes() {
+        return (int) Math.min(Runtime.getRuntime().maxMemory() / mHeapDivisor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Applies the cache budget of this profile to the {@link PageCache}.
+     */
+    public void applyCacheBudget() {
+        PageCache.getInstance().resize(getPageCacheBytes());
+    }
+
+}
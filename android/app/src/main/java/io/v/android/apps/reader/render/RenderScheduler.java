@@ -0,0 +1,225 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.os.SystemClock;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the render work on a fixed number of threads in the order of {@link Priority}.
+ *
+ * Work of a higher priority always starts before the queued work of a lower priority, and the work
+ * of the same priority starts in the order of submission. The background work ({@link
+ * Priority#PREFETCH} and {@link Priority#THUMBNAIL}) never occupies all the threads, so that a
+ * visible page can start rendering right away even while the caches are being warmed. This takes at
+ * least two threads, one of which is always kept for the foreground work. A running render cannot
+ * be interrupted, so the callers should also cancel the background work which is no longer
+ * useful.
+ *
+ * The scheduler keeps the queue depth and the time spent in the queue for each priority. This
+ * class is thread-safe.
+ */
+public class RenderScheduler {
+
+    /**
+     * The priority classes of the render work, from the highest to the lowest.
+     */
+    public enum Priority {
+        /** The page being displayed. */
+        VISIBLE,
+        /** The visible tiles of the zoomed page being displayed. */
+        TILE,
+        /** The pages which are likely to be displayed next. */
+        PREFETCH,
+        /** The small previews of the pages used for navigation. */
+        THUMBNAIL;
+
+        boolean isBackground() {
+            return compareTo(PREFETCH) >= 0;
+        }
+    }
+
+    private static final int PRIORITY_COUNT = Priority.values().length;
+
+    private final PriorityQueue<Task> mQueue;
+    private final Thread[] mThreads;
+    private final int mMaxBackgroundCount;
+    private int mRunningBackgroundCount;
+    private long mSequence;
+    private boolean mShutdown;
+
+    // Statistics, indexed by the ordinals of the priorities.
+    private final int[] mQueueDepths;
+    private final long[] mStartedCounts;
+    private final long[] mTotalWaitMillis;
+    private final long[] mMaxWaitMillis;
+
+    /**
+     * Creates a scheduler and starts its threads.
+     *
+     * @param threadCount the number of threads to run the work on, at least two.
+     */
+    public RenderScheduler(int threadCount) {
+        if (threadCount < 2) {
+            throw new IllegalArgumentException(
+                    "At least two threads are needed to keep one for the foreground work");
+        }
+
+        mQueue = new PriorityQueue<>();
+        mMaxBackgroundCount = threadCount - 1;
+        mQueueDepths = new int[PRIORITY_COUNT];
+        mStartedCounts = new long[PRIORITY_COUNT];
+        mTotalWaitMillis = new long[PRIORITY_COUNT];
+        mMaxWaitMillis = new long[PRIORITY_COUNT];
+
+        mThreads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            mThreads[i] = new Thread(this::runLoop, "RenderScheduler-" + i);
+            mThreads[i].start();
+        }
+    }
+
+    /**
+     * Queues the given work with the given priority.
+     *
+     * @return a future which can be used to cancel the work before it starts.
+     */
+    public synchronized Future<?> submit(Runnable runnable, Priority priority) {
+        Task task = new Task(runnable, priority, mSequence++);
+        if (mShutdown) {
+            task.cancel(false);
+            return task;
+        }
+
+        mQueue.add(task);
+        ++mQueueDepths[priority.ordinal()];
+        notifyAll();
+        return task;
+    }
+
+    /**
+     * Lets the running work finish and drops the queued work. The threads exit once they are idle.
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        while (!mQueue.isEmpty()) {
+            Task task = mQueue.poll();
+            --mQueueDepths[task.mPriority.ordinal()];
+            task.cancel(false);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of queued tasks of the given priority.
+     */
+    public synchronized int getQueueDepth(Priority priority) {
+        return mQueueDepths[priority.ordinal()];
+    }
+
+    /**
+     * Returns the average time that the tasks of the given priority spent in the queue.
+     */
+    public synchronized long getAverageWaitMillis(Priority priority) {
+        int i = priority.ordinal();
+        return mStartedCounts[i] == 0L ? 0L : mTotalWaitMillis[i] / mStartedCounts[i];
+    }
+
+    /**
+     * Returns the longest time that a task of the given priority spent in the queue.
+     */
+    public synchronized long getMaxWaitMillis(Priority priority) {
+        return mMaxWaitMillis[priority.ordinal()];
+    }
+
+    private synchronized void remove(Task task) {
+        if (mQueue.remove(task)) {
+            --mQueueDepths[task.mPriority.ordinal()];
+        }
+    }
+
+    /**
+     * Takes the next task that can be started, waiting until there is one.
+     *
+     * @return the next task, or null if this scheduler has been shut down.
+     */
+    private synchronized Task take() throws InterruptedException {
+        while (!mShutdown) {
+            Task task = mQueue.peek();
+            if (task != null && (!task.mPriority.isBackground()
+                    || mRunningBackgroundCount < mMaxBackgroundCount)) {
+                mQueue.poll();
+
+                int i = task.mPriority.ordinal();
+                long waitMillis = SystemClock.uptimeMillis() - task.mSubmitTime;
+                --mQueueDepths[i];
+                ++mStartedCounts[i];
+                mTotalWaitMillis[i] += waitMillis;
+                mMaxWaitMillis[i] = Math.max(mMaxWaitMillis[i], waitMillis);
+
+                if (task.mPriority.isBackground()) {
+                    ++mRunningBackgroundCount;
+                }
+                return task;
+            }
+
+            wait();
+        }
+
+        return null;
+    }
+
+    private synchronized void finish(Task task) {
+        if (task.mPriority.isBackground()) {
+            --mRunningBackgroundCount;
+            notifyAll();
+        }
+    }
+
+    private void runLoop() {
+        try {
+            Task task;
+            while ((task = take()) != null) {
+                try {
+                    task.run();
+                } finally {
+                    finish(task);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Task extends FutureTask<Void> implements Comparable<Task> {
+        private final Priority mPriority;
+        private final long mSequence;
+        private final long mSubmitTime;
+
+        Task(Runnable runnable, Priority priority, long sequence) {
+            super(runnable, null);
+            mPriority = priority;
+            mSequence = sequence;
+            mSubmitTime = SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean result = super.cancel(mayInterruptIfRunning);
+            remove(this);
+            return result;
+        }
+
+        @Override
+        public int compareTo(Task another) {
+            int result = mPriority.compareTo(another.mPriority);
+            return result != 0 ? result : Long.compare(mSequence, another.mSequence);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A fixed set of {@link PageRenderer} instances opened over the same PDF file.
+ *
+ * A {@link PageRenderer} allows only one open page at a time, so several pages can only be
+ * rendered at once with several renderers. Each renderer opens the file separately, and is lent to
+ * one thread at a time through {@link #acquire} and {@link #release}. This class is thread-safe.
+ */
+public class RendererPool {
+
+    private static final String TAG = RendererPool.class.getSimpleName();
+
+    /**
+     * Upper bound of the number of renderers, regardless of the device.
+     */
+    public static final int MAX_SIZE = 4;
+
+    /**
+     * Lower bound of the number of renderers, so that the {@link RenderScheduler} can keep one
+     * renderer for the visible page while the others prefetch.
+     */
+    public static final int MIN_SIZE = 2;
+
+    // Rough amount of the app memory to reserve for each renderer and the pages it renders.
+    private static final int MEMORY_PER_RENDERER_MB = 32;
+
+    private final List<PageRenderer> mRenderers;
+    // The renderers which are not lent, guarded by this.
+    private final Deque<PageRenderer> mIdleRenderers;
+    private final int mPageCount;
+    private boolean mClosed;
+
+    /**
+     * Returns the number of renderers suitable for this device, based on the number of cores and
+     * the memory available to the app, but no less than {@link #MIN_SIZE}.
+     */
+    public static int getDefaultSize(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int byCores = Runtime.getRuntime().availableProcessors();
+        int byMemory = am.getMemoryClass() / MEMORY_PER_RENDERER_MB;
+        return Math.max(MIN_SIZE, Math.min(MAX_SIZE, Math.min(byCores, byMemory)));
+    }
+
+    /**
+     * Opens the given number of renderers over the given PDF file.
+     *
+     * @param factory the backend of the renderers.
+     * @param file    the PDF file to render.
+     * @param size    the number of renderers.
+     * @throws IOException if the file could not be opened.
+     */
+    public RendererPool(PageRenderer.Factory factory, File file, int size) throws IOException {
+        mRenderers = new ArrayList<>(size);
+        mIdleRenderers = new ArrayDeque<>(size);
+
+        try {
+            for (int i = 0; i < size; ++i) {
+                PageRenderer renderer = factory.open(file);
+                mRenderers.add(renderer);
+                mIdleRenderers.add(renderer);
+            }
+        } catch (IOException e) {
+            for (PageRenderer renderer : mRenderers) {
+                renderer.close();
+            }
+            throw e;
+        }
+
+        mPageCount = mRenderers.get(0).getPageCount();
+        Log.i(TAG, "Opened " + size + " renderers for " + file.getName());
+    }
+
+    /**
+     * Returns the number of renderers in this pool.
+     */
+    public int size() {
+        return mRenderers.size();
+    }
+
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    /**
+     * Borrows a renderer, waiting until one is available. The renderer must be given back with
+     * {@link #release}.
+     *
+     * @return the renderer, or null if this pool is closed before one is available.
+     */
+    public synchronized PageRenderer acquire() throws InterruptedException {
+        while (!mClosed && mIdleRenderers.isEmpty()) {
+            wait();
+        }
+
+        return mClosed ? null : mIdleRenderers.poll();
+    }
+
+    /**
+     * Gives back a renderer borrowed by {@link #acquire}. The renderer is closed if this pool has
+     * been closed in the meantime.
+     */
+    public synchronized void release(PageRenderer renderer) {
+        if (mClosed) {
+            renderer.close();
+        } else {
+            mIdleRenderers.add(renderer);
+            notify();
+        }
+    }
+
+    /**
+     * Closes the idle renderers now, and the borrowed ones as soon as they are released. The
+     * threads waiting in {@link #acquire} get null.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        for (PageRenderer renderer : mIdleRenderers) {
+            renderer.close();
+        }
+        mIdleRenderers.clear();
+        notifyAll();
+    }
+
+}
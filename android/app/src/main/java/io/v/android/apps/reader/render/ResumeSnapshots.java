@@ -0,0 +1,205 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.v.android.apps.reader.Utils;
+
+/**
+ * Persists the last displayed page of each device set, so that it can be shown as soon as the
+ * device set is opened again, long before the DB and the renderer are ready.
+ *
+ * The images are stored under the app cache directory, named after the device set ids, and the
+ * page numbers are stored in the shared preferences. Only the most recent snapshots are kept. The
+ * images are written and decoded in the background.
+ */
+public class ResumeSnapshots {
+
+    private static final String TAG = ResumeSnapshots.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "snapshots";
+    private static final String PREFERENCES_NAME = "resume_snapshots";
+    private static final String EXTENSION = ".png";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int MAX_SNAPSHOTS = 16;
+
+    private static volatile ResumeSnapshots instance;
+
+    private final File mDirectory;
+    private final SharedPreferences mPreferences;
+    private final ExecutorService mWriteExecutor;
+    private final ExecutorService mReadExecutor;
+    private final Executor mMainThreadExecutor;
+
+    /**
+     * A page displayed when the device set was last closed.
+     */
+    public static class Snapshot {
+        private final Bitmap mBitmap;
+        private final int mPage;
+
+        Snapshot(Bitmap bitmap, int page) {
+            mBitmap = bitmap;
+            mPage = page;
+        }
+
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        /**
+         * Returns the page number of the snapshot. Page number is one-based.
+         */
+        public int getPage() {
+            return mPage;
+        }
+    }
+
+    /**
+     * Callback interface for the snapshots being loaded.
+     */
+    public interface LoadCallback {
+        /**
+         * Called on the main thread with the loaded snapshot. Not called if there is none.
+         */
+        void onSnapshotLoaded(Snapshot snapshot);
+    }
+
+    /**
+     * Singleton accessor of the ResumeSnapshots class.
+     */
+    public static ResumeSnapshots getInstance(Context context) {
+        ResumeSnapshots result = instance;
+        if (result == null) {
+            synchronized (ResumeSnapshots.class) {
+                result = instance;
+                if (result == null) {
+                    instance = result = new ResumeSnapshots(context.getApplicationContext());
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private ResumeSnapshots(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mWriteExecutor = Executors.newSingleThreadExecutor();
+        mReadExecutor = Executors.newSingleThreadExecutor();
+        mMainThreadExecutor = Utils.mainThreadExecutor();
+    }
+
+    /**
+     * Writes the snapshot of the given device set in the background, replacing the previous one.
+     *
+     * @param deviceSetId the id of the device set.
+     * @param page        the page number of the displayed page. Page number is one-based.
+     * @param bitmap      the displayed page, which must not be modified until {@code onDone} is
+     *                    called.
+     * @param onDone      called on the background thread once the bitmap is no longer needed.
+     */
+    public void save(String deviceSetId, int page, Bitmap bitmap, Runnable onDone) {
+        mWriteExecutor.execute(() -> {
+            try {
+                write(deviceSetId, page, bitmap);
+            } finally {
+                onDone.run();
+            }
+        });
+    }
+
+    private void write(String deviceSetId, int page, Bitmap bitmap) {
+        mDirectory.mkdirs();
+
+        File file = new File(mDirectory, deviceSetId + EXTENSION);
+        File temp = new File(mDirectory, deviceSetId + TEMP_EXTENSION);
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write the snapshot of " + deviceSetId + ": " + e.getMessage(), e);
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Could not rename " + temp);
+            temp.delete();
+            return;
+        }
+
+        mPreferences.edit().putInt(deviceSetId, page).apply();
+        trim();
+    }
+
+    /**
+     * Decodes the snapshot of the given device set in the background, and hands it to the given
+     * callback on the main thread. Meant to be called while the activity starts, so that the
+     * snapshot is shown long before the page is rendered, without delaying the first frame.
+     */
+    public void load(final String deviceSetId, final LoadCallback callback) {
+        mReadExecutor.execute(() -> {
+            Snapshot snapshot = read(deviceSetId);
+            if (snapshot != null) {
+                mMainThreadExecutor.execute(() -> callback.onSnapshotLoaded(snapshot));
+            }
+        });
+    }
+
+    private Snapshot read(String deviceSetId) {
+        int page = mPreferences.getInt(deviceSetId, 0);
+        if (page <= 0) {
+            return null;
+        }
+
+        File file = new File(mDirectory, deviceSetId + EXTENSION);
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            return null;
+        }
+
+        return new Snapshot(bitmap, page);
+    }
+
+    /**
+     * Deletes the oldest snapshots beyond {@link #MAX_SNAPSHOTS}.
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null || files.length <= MAX_SNAPSHOTS) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(rhs.lastModified(), lhs.lastModified());
+            }
+        });
+
+        SharedPreferences.Editor editor = mPreferences.edit();
+        for (int i = MAX_SNAPSHOTS; i < files.length; ++i) {
+            String name = files[i].getName();
+            editor.remove(name.substring(0, name.length() - EXTENSION.length()));
+            files[i].delete();
+        }
+        editor.apply();
+    }
+
+}
@@ -0,0 +1,116 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.v.android.apps.reader.render.PageRenderer.Page;
+import io.v.android.apps.reader.vdl.Device;
+import io.v.android.apps.reader.vdl.Screen;
+import io.v.android.apps.reader.vdl.SpreadLayout;
+import io.v.android.apps.reader.vdl.SpreadRegion;
+
+/**
+ * Lays out a single page across the screens of several devices, and renders the region of the
+ * page shown on each of them.
+ *
+ * The screens are placed side by side from left to right, aligned at the top, and the page is fit
+ * into the combined screen and centered. Each device renders only its own region, directly at the
+ * resolution of its screen, so no device renders the whole page at a high resolution.
+ */
+public final class Spreads {
+
+    private Spreads() {
+    }
+
+    /**
+     * Returns a layout which does not spread any page.
+     */
+    public static SpreadLayout none() {
+        return new SpreadLayout(0, 0, new HashMap<>());
+    }
+
+    /**
+     * Returns whether the given layout spreads a page across the devices.
+     */
+    public static boolean isEnabled(SpreadLayout layout) {
+        return layout != null
+                && layout.getWidth() > 0
+                && layout.getRegions() != null
+                && !layout.getRegions().isEmpty();
+    }
+
+    /**
+     * Creates a layout which places the screens of the given devices side by side.
+     *
+     * @param devices the devices, from left to right.
+     */
+    public static SpreadLayout create(List<Device> devices) {
+        Map<String, SpreadRegion> regions = new HashMap<>();
+        int left = 0;
+        int height = 0;
+        for (Device device : devices) {
+            Screen screen = device.getScreen();
+            regions.put(device.getId(),
+                    new SpreadRegion(left, 0, screen.getWidth(), screen.getHeight()));
+            left += screen.getWidth();
+            height = Math.max(height, screen.getHeight());
+        }
+
+        return new SpreadLayout(left, height, regions);
+    }
+
+    /**
+     * Returns the key of the region of the given page shown on the given device.
+     *
+     * @return the key, or null if the device has no region in the layout.
+     */
+    public static PageKey getRegionKey(SpreadLayout layout, String deviceId, String fileId,
+                                       int page) {
+        if (!isEnabled(layout)) {
+            return null;
+        }
+
+        SpreadRegion region = layout.getRegions().get(deviceId);
+        if (region == null || region.getWidth() <= 0 || region.getHeight() <= 0) {
+            return null;
+        }
+
+        return new PageKey(fileId, page, layout.getWidth(), layout.getHeight(), 1).forRegion(
+                region.getLeft(), region.getTop(), region.getWidth(), region.getHeight());
+    }
+
+    /**
+     * Renders the region of the given page on the given bitmap, which must be the size of the
+     * region.
+     */
+    public static void render(Page page, PageKey key, Bitmap bitmap) {
+        page.render(bitmap, getRegionTransform(page.getWidth(), page.getHeight(), key));
+    }
+
+    /**
+     * Returns the transformation from the page points to the pixels of the region given by the
+     * key. The parts of the region outside of the page are left blank.
+     */
+    static Matrix getRegionTransform(int pageWidth, int pageHeight, PageKey key) {
+        float scale = Math.min(
+                (float) key.getWidth() / pageWidth,
+                (float) key.getHeight() / pageHeight);
+
+        // Center the page in the combined screen, and then move the region to the origin.
+        Matrix transform = new Matrix();
+        transform.setScale(scale, scale);
+        transform.postTranslate(
+                (key.getWidth() - pageWidth * scale) / 2f - key.getRegionLeft(),
+                (key.getHeight() - pageHeight * scale) / 2f - key.getRegionTop());
+        return transform;
+    }
+
+}
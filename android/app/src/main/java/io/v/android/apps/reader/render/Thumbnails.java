@@ -0,0 +1,82 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import io.v.android.apps.reader.render.PageRenderer.Page;
+import io.v.android.apps.reader.vdl.Thumbnail;
+
+/**
+ * Creates and decodes the {@link Thumbnail}s of the PDF files.
+ *
+ * Thumbnails are rendered from the first page when a file is added, and are stored as small JPEG
+ * images so that they can be synced along with the file records cheaply.
+ */
+public final class Thumbnails {
+
+    /**
+     * Maximum width or height of a thumbnail in pixels.
+     */
+    public static final int MAX_SIZE = 160;
+
+    private static final String MIME_TYPE = "image/jpeg";
+    private static final int QUALITY = 80;
+
+    private Thumbnails() {
+    }
+
+    /**
+     * Renders the first page of the given PDF file into a thumbnail.
+     *
+     * @param fileId  the id of the file.
+     * @param pdfFile the local copy of the file.
+     * @param factory the backend to render the page with.
+     * @return        the thumbnail of the file.
+     * @throws IOException if the file could not be opened.
+     */
+    public static Thumbnail create(String fileId, File pdfFile, PageRenderer.Factory factory)
+            throws IOException {
+        try (PageRenderer renderer = factory.open(pdfFile);
+             Page page = renderer.openPage(0)) {
+            float scale = Math.min(
+                    (float) MAX_SIZE / page.getWidth(), (float) MAX_SIZE / page.getHeight());
+            int width = Math.max(1, Math.round(page.getWidth() * scale));
+            int height = Math.max(1, Math.round(page.getHeight() * scale));
+
+            // JPEG has no alpha channel, so render over a white background.
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.WHITE);
+            page.render(bitmap, null);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.JPEG, QUALITY, out);
+            bitmap.recycle();
+
+            return new Thumbnail(fileId, width, height, MIME_TYPE, out.toByteArray());
+        }
+    }
+
+    /**
+     * Decodes the image of the given thumbnail.
+     *
+     * @return the decoded image, or null if it could not be decoded.
+     */
+    public static Bitmap decode(Thumbnail thumbnail) {
+        byte[] data = thumbnail.getData();
+        if (data == null || data.length == 0) {
+            return null;
+        }
+
+        return BitmapFactory.decodeByteArray(data, 0, data.length);
+    }
+
+}
@@ -0,0 +1,94 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.v.android.apps.reader.render.PageRenderer.Page;
+
+/**
+ * Renders zoomed pages as a grid of fixed-size tiles, so that only the visible part of a zoomed
+ * page needs to be rendered and kept in memory.
+ *
+ * A page at zoom level N is the page fitted into the view bounds, scaled by N. The tiles divide
+ * this zoomed page into squares of {@link #TILE_SIZE} pixels, starting from the top-left corner.
+ */
+public final class TileRenderer {
+
+    public static final int TILE_SIZE = 512;
+    public static final int MAX_ZOOM = 4;
+
+    private TileRenderer() {
+    }
+
+    /**
+     * Returns the keys of the tiles which intersect the given viewport.
+     *
+     * @param pageKey    the key of the page.
+     * @param pageWidth  the width of the page fitted into the view bounds, i.e. at zoom level 1.
+     * @param pageHeight the height of the page fitted into the view bounds.
+     * @param zoom       the zoom level.
+     * @param viewport   the visible area, in the coordinates of the zoomed page.
+     * @return           the keys of the visible tiles, row by row.
+     */
+    public static List<PageKey> getVisibleTiles(PageKey pageKey, int pageWidth, int pageHeight,
+                                                int zoom, Rect viewport) {
+        List<PageKey> result = new ArrayList<>();
+
+        Rect visible = new Rect(0, 0, pageWidth * zoom, pageHeight * zoom);
+        if (!visible.intersect(viewport)) {
+            return result;
+        }
+
+        int firstColumn = visible.left / TILE_SIZE;
+        int lastColumn = (visible.right - 1) / TILE_SIZE;
+        int firstRow = visible.top / TILE_SIZE;
+        int lastRow = (visible.bottom - 1) / TILE_SIZE;
+
+        for (int row = firstRow; row <= lastRow; ++row) {
+            for (int column = firstColumn; column <= lastColumn; ++column) {
+                result.add(pageKey.forTile(zoom, column, row));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Renders the tile of the given page on the given bitmap.
+     *
+     * @param page the opened page.
+     * @param key  the key of the tile to render.
+     * @param tile the bitmap to render on, which must be {@link #TILE_SIZE} pixels square.
+     */
+    public static void render(Page page, PageKey key, Bitmap tile) {
+        float scale = getFitScale(page, key.getWidth(), key.getHeight()) * key.getZoom();
+
+        // Map the page onto the zoomed page, and then move the tile to the origin of the bitmap.
+        Matrix transform = new Matrix();
+        transform.setScale(scale, scale);
+        transform.postTranslate(
+                -key.getTileColumn() * TILE_SIZE,
+                -key.getTileRow() * TILE_SIZE);
+
+        page.render(tile, transform);
+    }
+
+    /**
+     * Returns the scale that fits the given page into the given bounds while keeping the aspect
+     * ratio of the page.
+     */
+    static float getFitScale(Page page, int width, int height) {
+        return Math.min(
+                (float) width / (float) page.getWidth(),
+                (float) height / (float) page.getHeight());
+    }
+
+}
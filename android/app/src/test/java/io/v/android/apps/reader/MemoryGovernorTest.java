@@ -0,0 +1,65 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+import static io.v.android.apps.reader.MemoryGovernor.PRIORITY_DISK;
+import static io.v.android.apps.reader.MemoryGovernor.PRIORITY_REBUILDABLE;
+import static io.v.android.apps.reader.MemoryGovernor.PRIORITY_REUSABLE;
+import static io.v.android.apps.reader.MemoryGovernor.PRIORITY_WORKING_SET;
+import static io.v.android.apps.reader.MemoryGovernor.getTrimFraction;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class MemoryGovernorTest {
+
+    private static final float DELTA = 0.001f;
+
+    @Test
+    public void testMildPressure() {
+        for (int level : new int[] { TRIM_MEMORY_UI_HIDDEN, TRIM_MEMORY_RUNNING_MODERATE }) {
+            assertEquals(0f, getTrimFraction(level, PRIORITY_REUSABLE), DELTA);
+            assertEquals(0.5f, getTrimFraction(level, PRIORITY_REBUILDABLE), DELTA);
+            assertEquals(1f, getTrimFraction(level, PRIORITY_WORKING_SET), DELTA);
+            assertEquals(1f, getTrimFraction(level, PRIORITY_DISK), DELTA);
+        }
+    }
+
+    @Test
+    public void testLowMemory() {
+        for (int level : new int[] { TRIM_MEMORY_BACKGROUND, TRIM_MEMORY_RUNNING_LOW }) {
+            assertEquals(0f, getTrimFraction(level, PRIORITY_REUSABLE), DELTA);
+            assertEquals(0.25f, getTrimFraction(level, PRIORITY_REBUILDABLE), DELTA);
+            assertEquals(1f, getTrimFraction(level, PRIORITY_WORKING_SET), DELTA);
+            assertEquals(1f, getTrimFraction(level, PRIORITY_DISK), DELTA);
+        }
+    }
+
+    @Test
+    public void testAboutToBeKilled() {
+        for (int level : new int[] {
+                TRIM_MEMORY_MODERATE, TRIM_MEMORY_COMPLETE, TRIM_MEMORY_RUNNING_CRITICAL }) {
+            assertEquals(0f, getTrimFraction(level, PRIORITY_REUSABLE), DELTA);
+            assertEquals(0f, getTrimFraction(level, PRIORITY_REBUILDABLE), DELTA);
+            assertEquals(0f, getTrimFraction(level, PRIORITY_WORKING_SET), DELTA);
+
+            // Deleting files does not free any memory.
+            assertEquals(1f, getTrimFraction(level, PRIORITY_DISK), DELTA);
+        }
+    }
+
+}
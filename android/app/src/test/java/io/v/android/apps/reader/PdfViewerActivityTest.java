@@ -9,9 +9,12 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricGradleTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 
 import io.v.android.apps.reader.model.IdFactory;
+import io.v.android.apps.reader.render.Spreads;
 import io.v.android.apps.reader.vdl.DeviceMeta;
 import io.v.android.apps.reader.vdl.DeviceSet;
 
@@ -45,11 +48,34 @@ public class PdfViewerActivityTest {
 
     }
 
+    @Test
+    public void testDeterminePrefetchPages() {
+        // Unlinked device in the middle of the document.
+        assertEquals(Arrays.asList(6, 7, 4),
+                PdfViewerActivity.determinePrefetchPages(5, 1, 2, 5, 5, 10));
+        assertEquals(Arrays.asList(4, 3, 6),
+                PdfViewerActivity.determinePrefetchPages(5, -1, 2, 5, 5, 10));
+
+        // Near the ends of the document.
+        assertEquals(Arrays.asList(10, 8),
+                PdfViewerActivity.determinePrefetchPages(9, 1, 2, 9, 9, 10));
+        assertEquals(Collections.singletonList(2),
+                PdfViewerActivity.determinePrefetchPages(1, -1, 2, 1, 1, 10));
+
+        // Linked with devices showing pages 3 to 9. The set can only move one more page forward.
+        assertEquals(Arrays.asList(6, 4),
+                PdfViewerActivity.determinePrefetchPages(5, 1, 3, 3, 9, 10));
+
+        // No prefetching at all.
+        assertEquals(Collections.<Integer>emptyList(),
+                PdfViewerActivity.determinePrefetchPages(5, 1, 0, 5, 5, 10));
+    }
+
     private DeviceSet createDeviceSetWithPages(int... pages) {
-        DeviceSet ds = new DeviceSet(null, null, new HashMap<>());
+        DeviceSet ds = new DeviceSet(null, null, new HashMap<>(), Spreads.none());
 
         for (int page : pages) {
-            DeviceMeta dm = new DeviceMeta(IdFactory.getRandomId(), page, 0, true);
+            DeviceMeta dm = new DeviceMeta(IdFactory.getRandomId(), page, 0, true, false);
             ds.getDevices().put(dm.getDeviceId(), dm);
         }
 
@@ -0,0 +1,178 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.db;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import io.v.android.apps.reader.BuildConfig;
+import io.v.android.apps.reader.model.ChunkedHash;
+import io.v.android.apps.reader.vdl.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class AbstractFileBuilderTest {
+
+    private static final int CHUNK_SIZE = ChunkedHash.CHUNK_SIZE;
+    private static final int DATA_SIZE = CHUNK_SIZE * 5 / 2;
+
+    @Test
+    public void testNewUpload() throws IOException {
+        byte[] data = createData();
+        final List<Long> progress = new ArrayList<>();
+
+        MemoryFileBuilder builder = new MemoryFileBuilder(0L, null);
+        builder.write(new ByteArrayInputStream(data), progress::add);
+
+        assertArrayEquals(data, builder.getContent());
+        assertTrue(progress.size() > 1);
+        for (int i = 1; i < progress.size(); ++i) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+        assertEquals(DATA_SIZE, (long) progress.get(progress.size() - 1));
+        assertEquals(DATA_SIZE, builder.getSize());
+        assertEquals(hash(data).getId(), builder.finishHash().getId());
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void testInterrupted() throws IOException {
+        MemoryFileBuilder builder = new MemoryFileBuilder(0L, null);
+
+        // The flag is cleared by the builder when it throws.
+        Thread.currentThread().interrupt();
+        builder.write(new ByteArrayInputStream(createData()), null);
+    }
+
+    @Test
+    public void testResumeMidChunk() throws IOException {
+        byte[] data = createData();
+        ChunkedHash expected = hash(data);
+
+        // The progress was saved after the first chunk, and the upload stopped in the middle of
+        // the second one.
+        long storedBytes = CHUNK_SIZE * 3 / 2;
+        MemoryFileBuilder builder = new MemoryFileBuilder(
+                storedBytes, expected.getChunkHashes().subList(0, 1));
+        builder.write(new ByteArrayInputStream(data), null);
+
+        assertArrayEquals(tail(data, storedBytes), builder.getContent());
+        assertEquals(DATA_SIZE, builder.getSize());
+        assertEquals(expected.getId(), builder.finishHash().getId());
+    }
+
+    @Test
+    public void testResumePastSavedOffset() throws IOException {
+        byte[] data = createData();
+        ChunkedHash expected = hash(data);
+
+        // The blob holds more than the saved progress, and only the chunk hashes within the
+        // stored bytes are used.
+        long storedBytes = CHUNK_SIZE + 1000;
+        MemoryFileBuilder builder = new MemoryFileBuilder(storedBytes, expected.getChunkHashes());
+
+        // Write the content in pieces which do not line up with the chunks.
+        for (int off = 0; off < DATA_SIZE; off += 4093) {
+            builder.write(data, off, Math.min(4093, DATA_SIZE - off));
+        }
+
+        assertArrayEquals(tail(data, storedBytes), builder.getContent());
+        assertEquals(DATA_SIZE, builder.getSize());
+        assertEquals(expected.getId(), builder.finishHash().getId());
+    }
+
+    @Test
+    public void testResumeWithoutChunkHashes() throws IOException {
+        byte[] data = createData();
+
+        long storedBytes = CHUNK_SIZE / 2;
+        MemoryFileBuilder builder = new MemoryFileBuilder(storedBytes, null);
+        builder.write(new ByteArrayInputStream(data), null);
+
+        assertArrayEquals(tail(data, storedBytes), builder.getContent());
+        assertEquals(hash(data).getId(), builder.finishHash().getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void testContentShorterThanChunkHashes() throws IOException {
+        byte[] data = createData();
+
+        MemoryFileBuilder builder = new MemoryFileBuilder(
+                DATA_SIZE, hash(data).getChunkHashes().subList(0, 2));
+        builder.write(new ByteArrayInputStream(data, 0, CHUNK_SIZE), null);
+    }
+
+    private static byte[] createData() {
+        byte[] data = new byte[DATA_SIZE];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] tail(byte[] data, long start) {
+        return Arrays.copyOfRange(data, (int) start, data.length);
+    }
+
+    private static ChunkedHash hash(byte[] data) throws IOException {
+        ChunkedHash.Hasher hasher = new ChunkedHash.Hasher();
+        hasher.update(data, 0, data.length);
+        return hasher.finish();
+    }
+
+    /**
+     * Keeps the written content in memory.
+     */
+    private static class MemoryFileBuilder extends AbstractFileBuilder {
+        private final ByteArrayOutputStream mContent;
+
+        MemoryFileBuilder(long storedBytes, List<byte[]> chunkHashes) {
+            super(storedBytes, chunkHashes);
+            mContent = new ByteArrayOutputStream();
+        }
+
+        byte[] getContent() {
+            return mContent.toByteArray();
+        }
+
+        @Override
+        protected void writeContent(byte[] b, int off, int len) {
+            mContent.write(b, off, len);
+        }
+
+        @Override
+        public void pause() {
+            // Nothing to do.
+        }
+
+        @Override
+        public void cancel() {
+            // Nothing to do.
+        }
+
+        @Override
+        public File build() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+            // Nothing to do.
+        }
+    }
+
+}
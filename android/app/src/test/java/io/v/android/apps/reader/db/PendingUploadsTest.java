@@ -0,0 +1,122 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.db;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.v.android.apps.reader.BuildConfig;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class PendingUploadsTest {
+
+    private PendingUploads mUploads;
+
+    @Before
+    public void setUp() {
+        mUploads = new PendingUploads(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        List<byte[]> chunkHashes = Arrays.asList(createHash(1), createHash(2));
+        // The ref may contain the separator.
+        PendingUploads.Upload upload =
+                new PendingUploads.Upload("blob:ref:1", 123456789L, 42L, chunkHashes);
+
+        PendingUploads.Upload decoded = PendingUploads.Upload.decode(upload.encode());
+
+        assertNotNull(decoded);
+        assertEquals("blob:ref:1", decoded.getRef());
+        assertEquals(123456789L, decoded.getOffset());
+        assertEquals(42L, decoded.getTime());
+        assertEquals(2, decoded.getChunkHashes().size());
+        assertArrayEquals(chunkHashes.get(0), decoded.getChunkHashes().get(0));
+        assertArrayEquals(chunkHashes.get(1), decoded.getChunkHashes().get(1));
+    }
+
+    @Test
+    public void testEncodeDecodeWithoutChunkHashes() {
+        PendingUploads.Upload upload = new PendingUploads.Upload(
+                "ref", 100L, 42L, Collections.<byte[]>emptyList());
+
+        PendingUploads.Upload decoded = PendingUploads.Upload.decode(upload.encode());
+
+        assertNotNull(decoded);
+        assertEquals("ref", decoded.getRef());
+        assertEquals(100L, decoded.getOffset());
+        assertTrue(decoded.getChunkHashes().isEmpty());
+    }
+
+    @Test
+    public void testDecodeMalformed() {
+        assertNull(PendingUploads.Upload.decode(""));
+        assertNull(PendingUploads.Upload.decode("1:2:ref"));
+        assertNull(PendingUploads.Upload.decode("x:2::ref"));
+        assertNull(PendingUploads.Upload.decode("1:2:abcd:ref"));
+    }
+
+    @Test
+    public void testGetAndRemove() {
+        assertNull(mUploads.get("upload"));
+
+        mUploads.put("upload", new PendingUploads.Upload(
+                "ref", 100L, 42L, Collections.singletonList(createHash(1))));
+        PendingUploads.Upload upload = mUploads.get("upload");
+        assertNotNull(upload);
+        assertEquals("ref", upload.getRef());
+        assertEquals(100L, upload.getOffset());
+
+        mUploads.remove("upload");
+        assertNull(mUploads.get("upload"));
+    }
+
+    @Test
+    public void testKeepsRecentUploads() {
+        for (int i = 1; i <= 4; ++i) {
+            assertEquals(Collections.emptyList(), put(i));
+        }
+
+        // The oldest upload is dropped once there are too many, and its blob handed back.
+        assertEquals(Collections.singletonList("ref1"), put(5));
+        assertEquals(Collections.singletonList("ref2"), put(6));
+
+        assertNull(mUploads.get("upload1"));
+        assertNull(mUploads.get("upload2"));
+        for (int i = 3; i <= 6; ++i) {
+            assertNotNull(mUploads.get("upload" + i));
+        }
+
+        // Updating a kept upload drops nothing.
+        assertEquals(Collections.emptyList(), put(3));
+    }
+
+    private List<String> put(int i) {
+        return mUploads.put("upload" + i, new PendingUploads.Upload(
+                "ref" + i, 100L * i, 1000L * i, Collections.<byte[]>emptyList()));
+    }
+
+    private static byte[] createHash(int seed) {
+        byte[] hash = new byte[32];
+        Arrays.fill(hash, (byte) seed);
+        return hash;
+    }
+
+}
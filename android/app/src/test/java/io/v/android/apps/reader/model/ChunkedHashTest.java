@@ -0,0 +1,132 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.model;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import io.v.android.apps.reader.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class ChunkedHashTest {
+
+    private static final int DATA_SIZE = ChunkedHash.CHUNK_SIZE * 5 / 2;
+
+    @Test
+    public void testSameIdRegardlessOfWrites() throws IOException {
+        byte[] data = createData(DATA_SIZE);
+
+        ChunkedHash whole = hash(data, data.length);
+        ChunkedHash pieces = hash(data, 4093);
+
+        assertEquals(whole.getId(), pieces.getId());
+        assertEquals(3, whole.getChunkHashes().size());
+        assertEquals(64, whole.getId().length());
+        assertFalse(ChunkedHash.isLegacyId(whole.getId()));
+    }
+
+    @Test
+    public void testDifferentContent() throws IOException {
+        byte[] data = createData(DATA_SIZE);
+        String id = hash(data, data.length).getId();
+
+        data[DATA_SIZE - 1] ^= 1;
+        assertNotEquals(id, hash(data, data.length).getId());
+    }
+
+    @Test
+    public void testVerify() throws IOException {
+        byte[] data = createData(DATA_SIZE);
+        ChunkedHash hash = hash(data, 8192);
+        File file = createFile(data);
+
+        try {
+            assertTrue(ChunkedHash.verify(file, hash.getId(), hash.getChunkHashes()));
+            assertTrue(ChunkedHash.verify(file, hash.getId(), null));
+
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(ChunkedHash.CHUNK_SIZE + 1);
+                raf.write(data[ChunkedHash.CHUNK_SIZE + 1] ^ 1);
+            }
+            assertFalse(ChunkedHash.verify(file, hash.getId(), hash.getChunkHashes()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ChunkedHash hash = new ChunkedHash.Hasher().finish();
+        File file = createFile(new byte[0]);
+
+        try {
+            assertEquals(0, hash.getChunkHashes().size());
+            assertTrue(ChunkedHash.verify(file, hash.getId(), hash.getChunkHashes()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testVerifyLegacy() throws IOException {
+        File file = createFile("hello".getBytes("UTF-8"));
+
+        try {
+            String id = "5D41402ABC4B2A76B9719D911017C592";
+            assertTrue(ChunkedHash.isLegacyId(id));
+            assertTrue(ChunkedHash.verify(file, id, null));
+            assertFalse(ChunkedHash.verify(file, "00000000000000000000000000000000", null));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testLegacyHasher() throws IOException {
+        byte[] data = "hello".getBytes("UTF-8");
+        ChunkedHash.LegacyHasher hasher = new ChunkedHash.LegacyHasher();
+        hasher.update(data, 0, data.length);
+
+        assertEquals(hash(data, data.length).getId(), hasher.finish().getId());
+        assertTrue("5D41402ABC4B2A76B9719D911017C592".equalsIgnoreCase(hasher.finishLegacyId()));
+    }
+
+    private static ChunkedHash hash(byte[] data, int writeSize) throws IOException {
+        ChunkedHash.Hasher hasher = new ChunkedHash.Hasher();
+        for (int off = 0; off < data.length; off += writeSize) {
+            hasher.update(data, off, Math.min(writeSize, data.length - off));
+        }
+        return hasher.finish();
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static File createFile(byte[] data) throws IOException {
+        File file = File.createTempFile("chunked", ".pdf");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+}
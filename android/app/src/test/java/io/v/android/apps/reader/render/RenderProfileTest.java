@@ -0,0 +1,48 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import io.v.android.apps.reader.BuildConfig;
+import io.v.android.apps.reader.render.RenderProfile.Tier;
+
+import static io.v.android.apps.reader.render.RenderProfile.chooseTier;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class RenderProfileTest {
+
+    // A full-screen ARGB_8888 page of this size takes 4MB.
+    private static final int SIZE = 1024;
+
+    @Test
+    public void testMemoryClassBoundaries() {
+        assertEquals(Tier.LOW, chooseTier(SIZE, SIZE, 60, false));
+        assertEquals(Tier.MEDIUM, chooseTier(SIZE, SIZE, 64, false));
+        assertEquals(Tier.MEDIUM, chooseTier(SIZE, SIZE, 156, false));
+        assertEquals(Tier.HIGH, chooseTier(SIZE, SIZE, 160, false));
+    }
+
+    @Test
+    public void testScreenSize() {
+        assertEquals(Tier.LOW, chooseTier(2 * SIZE, SIZE, 64, false));
+        assertEquals(Tier.MEDIUM, chooseTier(SIZE / 2, SIZE, 64, false));
+        assertEquals(Tier.HIGH, chooseTier(SIZE / 2, SIZE / 2, 64, false));
+
+        // An unknown screen size does not divide by zero.
+        assertEquals(Tier.HIGH, chooseTier(0, 0, 64, false));
+    }
+
+    @Test
+    public void testLowRamDevice() {
+        assertEquals(Tier.LOW, chooseTier(SIZE / 2, SIZE / 2, 512, true));
+    }
+
+}
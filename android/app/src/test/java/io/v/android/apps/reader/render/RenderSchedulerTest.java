@@ -0,0 +1,129 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.v.android.apps.reader.BuildConfig;
+import io.v.android.apps.reader.render.RenderScheduler.Priority;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class RenderSchedulerTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private RenderScheduler mScheduler;
+    private CountDownLatch mRelease;
+
+    @Before
+    public void setUp() {
+        mScheduler = new RenderScheduler(2);
+        mRelease = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mScheduler.shutdown();
+    }
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        // Hold one thread for the whole test, and the other one until everything is queued, so
+        // that the queued work runs one at a time.
+        CountDownLatch holding = new CountDownLatch(2);
+        CountDownLatch releaseSecond = new CountDownLatch(1);
+        mScheduler.submit(block(holding, mRelease), Priority.VISIBLE);
+        mScheduler.submit(block(holding, releaseSecond), Priority.VISIBLE);
+        assertTrue(holding.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        mScheduler.submit(record(order, "thumbnail"), Priority.THUMBNAIL);
+        mScheduler.submit(record(order, "prefetch 1"), Priority.PREFETCH);
+        mScheduler.submit(record(order, "tile"), Priority.TILE);
+        mScheduler.submit(record(order, "prefetch 2"), Priority.PREFETCH);
+        Future<?> last = mScheduler.submit(record(order, "visible"), Priority.VISIBLE);
+        assertEquals(2, mScheduler.getQueueDepth(Priority.PREFETCH));
+
+        releaseSecond.countDown();
+        last.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        mScheduler.submit(() -> { }, Priority.THUMBNAIL).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(Arrays.asList("visible", "tile", "prefetch 1", "prefetch 2", "thumbnail"),
+                order);
+        assertEquals(0, mScheduler.getQueueDepth(Priority.PREFETCH));
+    }
+
+    @Test
+    public void testBackgroundCap() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        mScheduler.submit(block(started, mRelease), Priority.PREFETCH);
+        mScheduler.submit(block(started, mRelease), Priority.THUMBNAIL);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // The second background task waits, even though a thread is idle.
+        assertEquals(1, mScheduler.getQueueDepth(Priority.THUMBNAIL));
+
+        // The idle thread is kept for the foreground work.
+        Future<?> visible = mScheduler.submit(() -> { }, Priority.VISIBLE);
+        visible.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(1, mScheduler.getQueueDepth(Priority.THUMBNAIL));
+
+        mRelease.countDown();
+        mScheduler.submit(() -> { }, Priority.THUMBNAIL).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(0, mScheduler.getQueueDepth(Priority.THUMBNAIL));
+    }
+
+    @Test
+    public void testCancelQueued() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        mScheduler.submit(block(started, mRelease), Priority.PREFETCH);
+        assertTrue(started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        Future<?> queued = mScheduler.submit(() -> { }, Priority.PREFETCH);
+        assertEquals(1, mScheduler.getQueueDepth(Priority.PREFETCH));
+        assertTrue(queued.cancel(false));
+        assertEquals(0, mScheduler.getQueueDepth(Priority.PREFETCH));
+        assertTrue(queued.isCancelled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSingleThread() {
+        new RenderScheduler(1);
+    }
+
+    private static Runnable block(final CountDownLatch started, final CountDownLatch release) {
+        return () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private static Runnable record(final List<String> order, final String label) {
+        return () -> order.add(label);
+    }
+
+}
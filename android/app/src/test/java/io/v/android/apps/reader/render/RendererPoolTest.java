@@ -0,0 +1,119 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.v.android.apps.reader.BuildConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class RendererPoolTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private List<FakeRenderer> mOpened;
+    private RendererPool mPool;
+
+    @Before
+    public void setUp() throws IOException {
+        mOpened = new ArrayList<>();
+        mPool = new RendererPool(file -> {
+            FakeRenderer renderer = new FakeRenderer();
+            mOpened.add(renderer);
+            return renderer;
+        }, new File("fake.pdf"), 2);
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        PageRenderer first = mPool.acquire();
+        PageRenderer second = mPool.acquire();
+        assertNotNull(first);
+        assertNotNull(second);
+        assertTrue(first != second);
+
+        mPool.release(first);
+        assertTrue(mPool.acquire() == first);
+    }
+
+    @Test
+    public void testAcquireAfterClose() throws Exception {
+        mPool.close();
+
+        assertNull(mPool.acquire());
+        for (FakeRenderer renderer : mOpened) {
+            assertTrue(renderer.mClosed);
+        }
+    }
+
+    @Test
+    public void testCloseWakesWaiters() throws Exception {
+        mPool.acquire();
+        PageRenderer borrowed = mPool.acquire();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<PageRenderer> waiting = executor.submit(mPool::acquire);
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+
+            mPool.close();
+            assertNull(waiting.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The borrowed renderers are closed once they are given back.
+        assertFalse(((FakeRenderer) borrowed).mClosed);
+        mPool.release(borrowed);
+        assertTrue(((FakeRenderer) borrowed).mClosed);
+    }
+
+    @Test
+    public void testSize() {
+        assertEquals(2, mPool.size());
+        assertEquals(3, mPool.getPageCount());
+    }
+
+    private static class FakeRenderer implements PageRenderer {
+        volatile boolean mClosed;
+
+        @Override
+        public int getPageCount() {
+            return 3;
+        }
+
+        @Override
+        public Page openPage(int index) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            mClosed = true;
+        }
+    }
+
+}
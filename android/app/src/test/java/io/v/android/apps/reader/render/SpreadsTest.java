@@ -0,0 +1,122 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.android.apps.reader.render;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import io.v.android.apps.reader.BuildConfig;
+import io.v.android.apps.reader.vdl.Device;
+import io.v.android.apps.reader.vdl.Screen;
+import io.v.android.apps.reader.vdl.SpreadLayout;
+import io.v.android.apps.reader.vdl.SpreadRegion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk=21)
+public class SpreadsTest {
+
+    private static final float DELTA = 0.01f;
+
+    @Test
+    public void testCreate() {
+        SpreadLayout layout = Spreads.create(Arrays.asList(
+                createDevice("a", 800, 1280),
+                createDevice("b", 600, 1024)));
+
+        assertTrue(Spreads.isEnabled(layout));
+        assertEquals(1400, layout.getWidth());
+        assertEquals(1280, layout.getHeight());
+
+        SpreadRegion b = layout.getRegions().get("b");
+        assertEquals(800, b.getLeft());
+        assertEquals(0, b.getTop());
+        assertEquals(600, b.getWidth());
+        assertEquals(1024, b.getHeight());
+    }
+
+    @Test
+    public void testNone() {
+        assertFalse(Spreads.isEnabled(Spreads.none()));
+        assertFalse(Spreads.isEnabled(null));
+        assertNull(Spreads.getRegionKey(Spreads.none(), "a", "file", 1));
+    }
+
+    @Test
+    public void testGetRegionKey() {
+        SpreadLayout layout = Spreads.create(Arrays.asList(
+                createDevice("a", 800, 1280),
+                createDevice("b", 600, 1024)));
+
+        PageKey key = Spreads.getRegionKey(layout, "b", "file", 3);
+        assertTrue(key.isRegion());
+        assertEquals(3, key.getPage());
+        assertEquals(1400, key.getWidth());
+        assertEquals(1280, key.getHeight());
+        assertEquals(800, key.getRegionLeft());
+        assertEquals(600, key.getRegionWidth());
+        assertEquals(1024, key.getRegionHeight());
+
+        assertNull(Spreads.getRegionKey(layout, "c", "file", 3));
+    }
+
+    @Test
+    public void testRegionTransformHalves() {
+        SpreadLayout layout = Spreads.create(Arrays.asList(
+                createDevice("left", 800, 1280),
+                createDevice("right", 800, 1280)));
+
+        // The landscape page is fit to the width of the combined screen, and centered vertically.
+        assertPageBounds(layout, "left", 1000, 625, 0f, 140f, 1600f, 1140f);
+        assertPageBounds(layout, "right", 1000, 625, -800f, 140f, 800f, 1140f);
+    }
+
+    @Test
+    public void testRegionTransformUnequalScreens() {
+        SpreadLayout layout = Spreads.create(Arrays.asList(
+                createDevice("a", 800, 1280),
+                createDevice("b", 600, 1024),
+                createDevice("c", 1080, 1920)));
+
+        // The page is fit to the height of the tallest screen, 2.4 pixels per point, which makes
+        // it 1488 pixels wide and centered from 496 to 1984 across the 2480 wide spread.
+        assertPageBounds(layout, "a", 620, 800, 496f, 0f, 1984f, 1920f);
+        assertPageBounds(layout, "b", 620, 800, -304f, 0f, 1184f, 1920f);
+        assertPageBounds(layout, "c", 620, 800, -904f, 0f, 584f, 1920f);
+    }
+
+    /**
+     * Checks where the corners of the page land in the pixels of the region of the given device.
+     */
+    private static void assertPageBounds(SpreadLayout layout, String deviceId, int pageWidth,
+                                         int pageHeight, float left, float top, float right,
+                                         float bottom) {
+        PageKey key = Spreads.getRegionKey(layout, deviceId, "file", 1);
+        Matrix transform = Spreads.getRegionTransform(pageWidth, pageHeight, key);
+
+        RectF bounds = new RectF();
+        transform.mapRect(bounds, new RectF(0, 0, pageWidth, pageHeight));
+        assertEquals(left, bounds.left, DELTA);
+        assertEquals(top, bounds.top, DELTA);
+        assertEquals(right, bounds.right, DELTA);
+        assertEquals(bottom, bounds.bottom, DELTA);
+    }
+
+    private static Device createDevice(String id, int width, int height) {
+        return new Device(id, "phone", id, "arm", new Screen(width, height));
+    }
+
+}